@@ -0,0 +1,85 @@
+/* Async Transport class to connect to a server using an AsynchronousSocketChannel and completion handlers.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncTransport implements Transport {
+    private final AsynchronousSocketChannel client; //Socket connected to the server
+
+    /**
+     * @param group Channel group to open the socket in, which decides the threads callbacks run on
+     */
+    public AsyncTransport(AsynchronousChannelGroup group) throws IOException
+    {
+        client = AsynchronousSocketChannel.open(group);
+    }
+
+    @Override
+    public void Connect(InetSocketAddress address, CompletionHandler<Void, Object> callback)
+    {
+        client.connect(address, null, callback);
+    }
+
+    @Override
+    public void StartReading(ByteBuffer buffer, CompletionHandler<Integer, ByteBuffer> handler)
+    {
+        buffer.clear(); //Reuse the same buffer for every read
+        client.read(buffer, 1, TimeUnit.DAYS, null, new CompletionHandler<Integer, Object>() { //Read from socket into buffer
+            @Override
+            public void completed(Integer result, Object attachment) {
+                if(result >= 0)
+                    buffer.flip(); //Flip buffer positions so reading happens at the correct place
+                handler.completed(result, buffer);
+                if(result >= 0 && client.isOpen()) //If the connection is still active
+                    StartReading(buffer, handler); //Start reading new data again
+            }
+
+            @Override
+            public void failed(Throwable exc, Object attachment) {
+                handler.failed(exc, buffer);
+            }
+        });
+    }
+
+    @Override
+    public void Write(ByteBuffer buffer, CompletionHandler<Integer, Object> callback)
+    {
+        client.write(buffer, null, new CompletionHandler<Integer, Object>() {
+            @Override
+            public void completed(Integer result, Object attachment) {
+                if(buffer.hasRemaining()) //Partial write, send the rest
+                    client.write(buffer, null, this);
+                else
+                    callback.completed(result, attachment);
+            }
+
+            @Override
+            public void failed(Throwable exc, Object attachment) {
+                callback.failed(exc, attachment);
+            }
+        });
+    }
+
+    @Override
+    public boolean IsOpen()
+    {
+        return client.isOpen();
+    }
+
+    @Override
+    public void Close() throws IOException
+    {
+        if(client.isOpen())
+            client.shutdownOutput();
+        client.close(); //Close TCP socket
+    }
+}
@@ -0,0 +1,140 @@
+/* Blocking Transport class to connect to a server using a blocking SocketChannel with a reader thread and a writer thread per connection.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+public class BlockingTransport implements Transport {
+    private final ThreadFactory threads; //Creates the reader and writer threads, virtual threads when the JVM has them
+    private volatile SocketChannel channel; //Blocking socket connected to the server
+    private volatile ExecutorService writer; //Single thread that performs blocking writes in order
+    private boolean closed = false; //If Close has been called, a connect still in progress then closes its socket
+
+    /**
+     * @param threads Factory for the connection's reader and writer threads
+     */
+    public BlockingTransport(ThreadFactory threads)
+    {
+        this.threads = threads;
+    }
+
+    @Override
+    public void Connect(InetSocketAddress address, CompletionHandler<Void, Object> callback)
+    {
+        threads.newThread(() -> {
+            SocketChannel opened;
+            try {
+                opened = SocketChannel.open(address); //Blocks until connected
+            }
+            catch (IOException ex)
+            {
+                callback.failed(ex, null);
+                return;
+            }
+            synchronized (this)
+            {
+                if(!closed)
+                {
+                    writer = Executors.newSingleThreadExecutor(threads); //Before the channel, so a write seen after IsOpen always has a writer
+                    channel = opened;
+                }
+            }
+            if(channel != opened) //Closed while connecting
+            {
+                try {
+                    opened.close();
+                }
+                catch (IOException ignored) { }
+                callback.failed(new AsynchronousCloseException(), null);
+                return;
+            }
+            callback.completed(null, null);
+        }).start();
+    }
+
+    @Override
+    public void StartReading(ByteBuffer buffer, CompletionHandler<Integer, ByteBuffer> handler)
+    {
+        threads.newThread(() -> {
+            try {
+                while(channel.isOpen())
+                {
+                    buffer.clear();
+                    int result = channel.read(buffer); //Blocks until data arrives
+                    if(result >= 0)
+                        buffer.flip();
+                    handler.completed(result, buffer);
+                    if(result < 0) return; //Server closed the connection
+                }
+            }
+            catch (IOException ex)
+            {
+                handler.failed(ex, buffer);
+            }
+        }).start();
+    }
+
+    @Override
+    public void Write(ByteBuffer buffer, CompletionHandler<Integer, Object> callback)
+    {
+        ExecutorService writer = this.writer;
+        if(writer == null)
+        {
+            callback.failed(new ClosedChannelException(), null);
+            return;
+        }
+        try {
+            writer.execute(() -> {
+                try {
+                    int written = 0;
+                    while(buffer.hasRemaining())
+                        written += channel.write(buffer); //Blocks until written
+                    callback.completed(written, null);
+                }
+                catch (IOException ex)
+                {
+                    callback.failed(ex, null);
+                }
+            });
+        }
+        catch (RejectedExecutionException ex) //Writer shut down by Close
+        {
+            callback.failed(new ClosedChannelException(), null);
+        }
+    }
+
+    @Override
+    public boolean IsOpen()
+    {
+        return channel != null && channel.isOpen();
+    }
+
+    @Override
+    public void Close() throws IOException
+    {
+        synchronized (this)
+        {
+            closed = true;
+        }
+        if(writer != null)
+            writer.shutdown();
+        if(channel != null)
+        {
+            if(channel.isOpen())
+                channel.shutdownOutput();
+            channel.close(); //Unblocks the reader thread
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/* Capabilities class to track IRCv3 capability negotiation (CAP LS 302, REQ, ACK, NAK, NEW and DEL) for a connection.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Updated from the connection's read thread as CAP replies arrive, all methods are synchronized so it can be read from any thread.
+ */
+public class Capabilities {
+    public static final String[] WANTED = { "message-tags", "batch", "server-time", "labeled-response", "draft/chathistory", "chathistory" }; //Capabilities the client asks for when the server offers them
+
+    private final HashSet<String> offered = new HashSet<>(); //Capabilities the server offers, without values
+    private final HashSet<String> requested = new HashSet<>(); //Capabilities asked for and not yet acknowledged or rejected
+    private final HashSet<String> enabled = new HashSet<>(); //Capabilities the server acknowledged
+    private boolean negotiating = false; //If registration is held until CAP END is sent
+
+    /**
+     * Forgets everything and holds registration until negotiation ends, for a new connection
+     */
+    public synchronized void Begin()
+    {
+        offered.clear();
+        requested.clear();
+        enabled.clear();
+        negotiating = true;
+    }
+
+    /**
+     * Adds capabilities from a CAP LS or CAP NEW reply
+     * @param list Space separated capabilities, each may have a value eg "sasl=PLAIN,EXTERNAL"
+     */
+    public synchronized void Offered(String list)
+    {
+        for(String capability : Split(list))
+        {
+            int equals = capability.indexOf('=');
+            offered.add(equals == -1 ? capability : capability.substring(0, equals));
+        }
+    }
+
+    /**
+     * Picks the wanted capabilities that are offered and not yet asked for, and marks them as requested
+     * @return Capabilities to put in a CAP REQ, empty if there are none
+     */
+    public synchronized ArrayList<String> Request()
+    {
+        ArrayList<String> request = new ArrayList<>();
+        for(String capability : WANTED)
+        {
+            if(offered.contains(capability) && !enabled.contains(capability) && requested.add(capability))
+                request.add(capability);
+        }
+        return request;
+    }
+
+    /**
+     * Applies a CAP ACK reply. A capability prefixed with '-' was disabled
+     */
+    public synchronized void Acknowledged(String list)
+    {
+        for(String capability : Split(list))
+        {
+            if(capability.startsWith("-"))
+                enabled.remove(capability.substring(1));
+            else
+            {
+                requested.remove(capability);
+                enabled.add(capability);
+            }
+        }
+    }
+
+    /**
+     * Applies a CAP NAK reply, the whole request was rejected
+     */
+    public synchronized void Rejected(String list)
+    {
+        for(String capability : Split(list))
+            requested.remove(capability);
+    }
+
+    /**
+     * Applies a CAP DEL reply, the server no longer offers the capabilities
+     */
+    public synchronized void Removed(String list)
+    {
+        for(String capability : Split(list))
+        {
+            offered.remove(capability);
+            requested.remove(capability);
+            enabled.remove(capability);
+        }
+    }
+
+    /**
+     * Ends negotiation if nothing is still waiting for a reply
+     * @return True if CAP END should be sent now
+     */
+    public synchronized boolean Finish()
+    {
+        if(!negotiating || !requested.isEmpty()) return false;
+        negotiating = false;
+        return true;
+    }
+
+    public synchronized boolean IsEnabled(String capability)
+    {
+        return enabled.contains(capability);
+    }
+
+    /**
+     * @return If either the ratified or the draft chathistory capability is enabled
+     */
+    public synchronized boolean HasChatHistory()
+    {
+        return enabled.contains("chathistory") || enabled.contains("draft/chathistory");
+    }
+
+    /**
+     * @return Enabled capabilities, space separated
+     */
+    public synchronized String GetEnabled()
+    {
+        return String.join(" ", enabled);
+    }
+
+    private static String[] Split(String list)
+    {
+        list = list.trim();
+        return list.isEmpty() ? new String[0] : list.split(" +");
+    }
+}
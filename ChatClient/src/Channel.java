@@ -0,0 +1,193 @@
+/* Channel class to hold the members of a joined IRC channel and their prefix modes (op, voice ...).
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.util.ArrayList;
+
+public class Channel {
+    public final String name; //Channel name as the server sent it
+    final TargetRegistry.Target key; //Canonical key of the name
+
+    //Open addressing hash table of members with linear probing, a slot is empty when its user is null.
+    //Members are stored as references to shared User objects, with one byte of prefix mode bits each, so large channels stay compact
+    private User[] members = new User[16];
+    private byte[] modes = new byte[16]; //Prefix mode bits of each member, bit i is the i-th mode of the server's PREFIX
+    private int size = 0; //Number of members
+    boolean namesComplete = false; //If the end of a NAMES reply has been received, a new 353 after this starts a fresh list
+
+    Channel(String name, TargetRegistry.Target key)
+    {
+        this.name = name;
+        this.key = key;
+    }
+
+    /**
+     * @return Number of members
+     */
+    public int Size()
+    {
+        return size;
+    }
+
+    /**
+     * Finds a member by nickname
+     * @param key Canonical key of the nickname, may be null
+     * @return The member, null if not in the channel
+     */
+    public User Get(TargetRegistry.Target key)
+    {
+        if(key == null) return null;
+        int mask = members.length - 1;
+        for(int i = Mix(key.hash) & mask; members[i] != null; i = (i + 1) & mask)
+        {
+            if(members[i].key == key)
+                return members[i];
+        }
+        return null;
+    }
+
+    /**
+     * @return Prefix mode bits of a member, 0 if not in the channel
+     */
+    public byte ModesOf(User user)
+    {
+        int slot = Slot(user);
+        return members[slot] == null ? 0 : modes[slot];
+    }
+
+    /**
+     * @return Copy of the member list, in no particular order
+     */
+    public ArrayList<User> Members()
+    {
+        ArrayList<User> list = new ArrayList<>(size);
+        for(User user : members)
+        {
+            if(user != null)
+                list.add(user);
+        }
+        return list;
+    }
+
+    /**
+     * Adds a member, or replaces its modes if it is already in the table
+     * @return True if the user was not a member already
+     */
+    boolean Put(User user, byte userModes)
+    {
+        int slot = Slot(user);
+        if(members[slot] != null)
+        {
+            modes[slot] = userModes;
+            return false;
+        }
+        if((size + 1) * 3 > members.length * 2) //Keep the table at most two thirds full so probes stay short
+        {
+            Resize(members.length * 2);
+            slot = Slot(user);
+        }
+        members[slot] = user;
+        modes[slot] = userModes;
+        size++;
+        return true;
+    }
+
+    /**
+     * Sets or clears one prefix mode bit of a member
+     */
+    void SetMode(User user, int bit, boolean set)
+    {
+        int slot = Slot(user);
+        if(members[slot] == null) return;
+        modes[slot] = (byte) (set ? modes[slot] | (1 << bit) : modes[slot] & ~(1 << bit));
+    }
+
+    /**
+     * Removes a member
+     * @return True if the user was a member
+     */
+    boolean Remove(User user)
+    {
+        int slot = Slot(user);
+        if(members[slot] == null) return false;
+        //Backward shift deletion: move later entries of the probe run into the gap, so no tombstones are needed
+        int mask = members.length - 1;
+        int gap = slot;
+        for(int i = (gap + 1) & mask; members[i] != null; i = (i + 1) & mask)
+        {
+            int home = Mix(members[i].key.hash) & mask;
+            if(((i - home) & mask) >= ((i - gap) & mask)) //Entry can move back into the gap without passing its home slot
+            {
+                members[gap] = members[i];
+                modes[gap] = modes[i];
+                gap = i;
+            }
+        }
+        members[gap] = null;
+        modes[gap] = 0;
+        size--;
+        return true;
+    }
+
+    /**
+     * Rebuilds the table after the hashes of the member keys changed, eg a new case mapping
+     */
+    void Rehash()
+    {
+        Resize(members.length);
+    }
+
+    /**
+     * Removes every member
+     */
+    void Clear()
+    {
+        members = new User[16];
+        modes = new byte[16];
+        size = 0;
+    }
+
+    /**
+     * @return Slot holding the user, or the empty slot it would go in
+     */
+    private int Slot(User user)
+    {
+        int mask = members.length - 1;
+        int i = Mix(user.key.hash) & mask;
+        while(members[i] != null && members[i] != user)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Moves every member into a new table
+     * @param length Slots in the new table, a power of two
+     */
+    private void Resize(int length)
+    {
+        User[] oldMembers = members;
+        byte[] oldModes = modes;
+        members = new User[length];
+        modes = new byte[length];
+        for(int i = 0; i < oldMembers.length; i++)
+        {
+            if(oldMembers[i] != null)
+            {
+                int slot = Slot(oldMembers[i]);
+                members[slot] = oldMembers[i];
+                modes[slot] = oldModes[i];
+            }
+        }
+    }
+
+    /**
+     * Spreads the high bits of a key hash into the low bits used for the slot index
+     */
+    private static int Mix(int hash)
+    {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
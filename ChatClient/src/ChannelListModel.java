@@ -0,0 +1,145 @@
+/* Channel List Model class to hold a channel LIST as it streams in from the server, for display in a table.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ChannelListModel extends AbstractTableModel {
+    public static final int FLUSH_INTERVAL = 100; //Milliseconds between table updates while a list streams in
+    private static final String[] columns = { "Channel", "Users", "Topic" };
+
+    /**
+     * A channel parsed from a 322 reply, waiting to be added to the table
+     */
+    private static class PendingChannel
+    {
+        final String channel; //Channel name
+        final int users; //Number of visible users
+        final String topic; //Channel topic, may be empty
+
+        PendingChannel(String channel, int users, String topic)
+        {
+            this.channel = channel;
+            this.users = users;
+            this.topic = topic;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<PendingChannel> pending = new ConcurrentLinkedQueue<>(); //Channels received but not yet in the table
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false); //If a flush is already scheduled on the event thread
+    private final Timer flushTimer; //Swing timer that moves pending channels into the table on the event thread
+
+    //Table rows, only touched on the event thread
+    private String[] channels = new String[1024];
+    private int[] users = new int[1024];
+    private String[] topics = new String[1024];
+    private int size = 0;
+    private long totalUsers = 0; //Sum of the users column
+
+    public ChannelListModel()
+    {
+        flushTimer = new Timer(FLUSH_INTERVAL, e -> Flush());
+        flushTimer.setRepeats(false); //Only run when there are channels waiting
+    }
+
+    /**
+     * Queues a channel to be added to the table. Safe to call from any thread
+     * @param channel Channel name
+     * @param users Number of visible users
+     * @param topic Channel topic
+     */
+    public void Add(String channel, int users, String topic)
+    {
+        pending.add(new PendingChannel(channel, users, topic));
+        if(flushScheduled.compareAndSet(false, true)) //Only the first channel since the last flush schedules a new one
+            SwingUtilities.invokeLater(flushTimer::restart);
+    }
+
+    /**
+     * Removes every row. Runs on the event thread.
+     * Channels still waiting are kept, they were queued by the network thread after the list that cleared the table started
+     */
+    public void Clear()
+    {
+        Arrays.fill(channels, 0, size, null);
+        Arrays.fill(topics, 0, size, null);
+        size = 0;
+        totalUsers = 0;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Adds everything waiting to the table now instead of on the next timer tick. Runs on the event thread
+     */
+    public void Flush()
+    {
+        flushScheduled.set(false); //Channels added from here on schedule another flush
+        int first = size;
+        PendingChannel next;
+        while((next = pending.poll()) != null)
+        {
+            if(size == channels.length) //Full, double the capacity
+            {
+                channels = Arrays.copyOf(channels, size * 2);
+                users = Arrays.copyOf(users, size * 2);
+                topics = Arrays.copyOf(topics, size * 2);
+            }
+            channels[size] = next.channel;
+            users[size] = next.users;
+            topics[size] = next.topic;
+            totalUsers += next.users;
+            size++;
+        }
+        if(size > first)
+            fireTableRowsInserted(first, size - 1); //One event for the whole batch
+    }
+
+    /**
+     * @return Sum of the user counts of every channel in the table
+     */
+    public long GetTotalUsers()
+    {
+        return totalUsers;
+    }
+
+    @Override
+    public int getRowCount()
+    {
+        return size;
+    }
+
+    @Override
+    public int getColumnCount()
+    {
+        return columns.length;
+    }
+
+    @Override
+    public String getColumnName(int column)
+    {
+        return columns[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column)
+    {
+        return column == 1 ? Integer.class : String.class; //Users sort numerically
+    }
+
+    @Override
+    public Object getValueAt(int row, int column)
+    {
+        switch (column)
+        {
+            case 0: return channels[row];
+            case 1: return users[row];
+            default: return topics[row];
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/* Chat History class to remember the last message seen in each channel and query, and to page in what was missed with IRCv3 CHATHISTORY.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kept for the life of a connection object, so it survives reconnects. A backfill asks for the messages after the last one seen,
+ * a page at a time, and live messages for the target are held until it finishes so the tab stays in order.
+ * Used from the connection's read thread, methods are synchronized as a reconnect may reset it from another thread.
+ */
+public class ChatHistory {
+    public static final int PAGE_SIZE = 100; //Messages asked for per request, lowered to the server's CHATHISTORY limit
+    public static final int MAX_PAGES = 20; //Pages fetched per backfill, older gaps are left to the log
+    public static final int MAX_HELD_LINES = 1000; //Live lines held per backfill, the backfill is given up past this
+    public static final int TIMEOUT = 10; //Seconds to wait for a page before the backfill is given up
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    /**
+     * Last message seen for a target
+     */
+    private static class Seen
+    {
+        long time; //Server time of the message, or when it arrived if the server doesn't send times
+        String line; //Raw line, its msgid tag is read only when a request is built
+    }
+
+    /**
+     * A backfill in progress
+     */
+    private static class Backfill
+    {
+        final String name; //Target name to put in requests
+        int pages = 0; //Pages asked for so far
+        long requested; //System.nanoTime when the last page was asked for
+        final ArrayList<String> held = new ArrayList<>(); //Live lines that arrived during the backfill, in order
+        Backfill(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    private final HashMap<TargetRegistry.Target, Seen> seen = new HashMap<>();
+    private final HashMap<TargetRegistry.Target, Backfill> backfills = new HashMap<>();
+    private final IrcMessage parser = new IrcMessage(); //Reads the msgid of a seen line
+
+    /**
+     * Records a message as the newest seen for its target
+     * @param target Key of the channel, or the other user for a query
+     * @param time Server time of the message, -1 to use the current time
+     * @param line Raw line of the message
+     */
+    public synchronized void Seen(TargetRegistry.Target target, long time, String line)
+    {
+        Seen last = seen.get(target);
+        if(last == null)
+        {
+            last = new Seen();
+            seen.put(target, last);
+        }
+        last.time = time == -1 ? System.currentTimeMillis() : time;
+        last.line = line;
+    }
+
+    /**
+     * Starts a backfill if anything has been seen for the target and none is running
+     * @param target Key of the channel or query
+     * @param name Name to send in the request
+     * @param limit Messages per page
+     * @return First CHATHISTORY request to send, null if there is nothing to backfill
+     */
+    public synchronized String Begin(TargetRegistry.Target target, String name, int limit)
+    {
+        if(!seen.containsKey(target) || backfills.containsKey(target)) return null;
+        backfills.put(target, new Backfill(name));
+        return Next(target, limit);
+    }
+
+    /**
+     * A page has been received and handled
+     * @param target Key of the channel or query
+     * @param lines Number of lines in the page
+     * @param limit Messages per page
+     * @return Request for the next page, null if the backfill is done and held lines should be released with Finish
+     */
+    public synchronized String PageReceived(TargetRegistry.Target target, int lines, int limit)
+    {
+        Backfill backfill = backfills.get(target);
+        if(backfill == null || lines < limit || backfill.pages >= MAX_PAGES) //A short page is the last one
+            return null;
+        return Next(target, limit);
+    }
+
+    /**
+     * @return CHATHISTORY AFTER request for the messages after the newest seen, by msgid if the server sent one
+     */
+    private String Next(TargetRegistry.Target target, int limit)
+    {
+        Backfill backfill = backfills.get(target);
+        Seen last = seen.get(target);
+        backfill.pages++;
+        backfill.requested = System.nanoTime();
+        String after = null;
+        if(parser.Parse(last.line))
+        {
+            String id = parser.TagValue("msgid");
+            if(id != null && !id.isEmpty() && id.indexOf(' ') == -1)
+                after = "msgid=" + id;
+        }
+        if(after == null)
+            after = "timestamp=" + TIME_FORMAT.format(Instant.ofEpochMilli(last.time));
+        return "CHATHISTORY AFTER " + backfill.name + " " + after + " " + limit;
+    }
+
+    /**
+     * @return If a backfill has waited longer than the timeout for its last page
+     */
+    public synchronized boolean Expired(TargetRegistry.Target target)
+    {
+        Backfill backfill = backfills.get(target);
+        return backfill != null && System.nanoTime() - backfill.requested >= TimeUnit.SECONDS.toNanos(TIMEOUT);
+    }
+
+    public synchronized boolean IsBackfilling(TargetRegistry.Target target)
+    {
+        return backfills.containsKey(target);
+    }
+
+    /**
+     * Holds a live line until the target's backfill finishes
+     * @return False if too many lines are held, the backfill should be finished now
+     */
+    public synchronized boolean Hold(TargetRegistry.Target target, String line)
+    {
+        Backfill backfill = backfills.get(target);
+        if(backfill == null || backfill.held.size() >= MAX_HELD_LINES) return false;
+        backfill.held.add(line);
+        return true;
+    }
+
+    /**
+     * Ends a backfill
+     * @return Live lines held during it, in the order they arrived, to be handled now
+     */
+    public synchronized ArrayList<String> Finish(TargetRegistry.Target target)
+    {
+        Backfill backfill = backfills.remove(target);
+        return backfill == null ? new ArrayList<>() : backfill.held;
+    }
+
+    /**
+     * Ends every backfill, eg when the server refuses requests or the connection is lost
+     * @return Live lines held by all of them
+     */
+    public synchronized ArrayList<String> FinishAll()
+    {
+        ArrayList<String> held = new ArrayList<>();
+        for(Backfill backfill : backfills.values())
+            held.addAll(backfill.held);
+        backfills.clear();
+        return held;
+    }
+
+    /**
+     * @return Keys of the targets something has been seen for
+     */
+    public synchronized ArrayList<TargetRegistry.Target> GetSeenTargets()
+    {
+        return new ArrayList<>(seen.keySet());
+    }
+}
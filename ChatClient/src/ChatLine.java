@@ -0,0 +1,100 @@
+/* Chat Line class to hold a single line of chat output before it is rendered into a tab.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+public class ChatLine {
+    public static final String[] COLORS = { "black", "red", "green", "blue", "gray", "orange", "magenta" }; //Colour names used for chat output, indexes are stored by the line view and chat log
+
+    public final String nick; //Nickname shown before the text, null for plain lines
+    public final String nickColor; //Colour of the nickname
+    public final String text; //Text of the line
+    public final String color; //Colour of the text
+    public final boolean newLine; //If the line ends with a line break
+
+    /**
+     * Plain coloured line
+     * @param text Text of the line
+     * @param color Colour name eg "red"
+     */
+    public ChatLine(String text, String color)
+    {
+        this(null, null, text, color, true);
+    }
+
+    /**
+     * Chat message line shown as "nick: text"
+     * @param nick Nickname of the sender
+     * @param nickColor Colour of the nickname
+     * @param text Message text, shown in black
+     */
+    public ChatLine(String nick, String nickColor, String text)
+    {
+        this(nick, nickColor, text, "black", true);
+    }
+
+    public ChatLine(String nick, String nickColor, String text, String color, boolean newLine)
+    {
+        this.nick = nick;
+        this.nickColor = nickColor;
+        this.text = text;
+        this.color = color;
+        this.newLine = newLine;
+    }
+
+    /**
+     * Appends this line as HTML for the HTML chat view
+     * @param html Builder to append to
+     */
+    public void AppendHtml(StringBuilder html)
+    {
+        if(nick != null) //Chat message, nick is coloured and the message is plain
+        {
+            html.append("<font color='").append(nickColor).append("'>");
+            AppendEscaped(html, nick);
+            html.append("</font>: ");
+            AppendEscaped(html, text);
+        }
+        else
+        {
+            html.append("<font color='").append(color).append("'>");
+            AppendEscaped(html, text);
+            html.append("</font>");
+        }
+        if(newLine)
+            html.append("<br>");
+    }
+
+    /**
+     * Appends text with the characters HTML treats as markup escaped, so server text cannot inject tags
+     */
+    private static void AppendEscaped(StringBuilder html, String text)
+    {
+        for(int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if(c == '&') html.append("&amp;");
+            else if(c == '<') html.append("&lt;");
+            else if(c == '>') html.append("&gt;");
+            else html.append(c);
+        }
+    }
+
+    /**
+     * @param name Colour name eg "red"
+     * @return Index of the colour in COLORS, 0 (black) if unknown
+     */
+    public static byte ColorIndex(String name)
+    {
+        if(name != null)
+        {
+            for(byte i = 0; i < COLORS.length; i++)
+            {
+                if(COLORS[i].equals(name))
+                    return i;
+            }
+        }
+        return 0;
+    }
+}
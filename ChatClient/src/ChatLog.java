@@ -0,0 +1,504 @@
+/* Chat Log class to append every chat line of every tab to segment files on disk, written by a background thread.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Each tab of each server gets a directory of numbered segment files eg logs/irc.ecs.vuw.ac.nz_6667/#general/00000001.log.
+ * A record is: int length, long time in milliseconds, byte flags, byte text colour, byte nick colour, short nick byte length,
+ * nick UTF-8, text UTF-8, int length. The length is repeated at the end so segments can also be read from newest to oldest.
+ * Lines are queued without blocking, a full queue drops lines rather than stall the network thread.
+ */
+public class ChatLog {
+    public static final int SEGMENT_SIZE = 8 * 1024 * 1024; //Bytes per segment file before a new one is started
+    public static final int QUEUE_SIZE = 262144; //Max lines waiting to be written, enough for a few seconds at 100k lines/s while the writer warms up
+    public static final int MAX_OPEN_FILES = 64; //Max segment files kept open, least recently written are closed first
+    public static final int BUFFER_SIZE = 32768; //Write buffer per open segment
+    public static final int MAX_TEXT_LENGTH = 8192; //Longer lines are cut short, more than any IRC line
+    public static final int FLAG_NEW_LINE = 1; //Line ends with a line break
+    public static final int FLAG_NICK = 2; //Line has a nick run
+
+    public static final SearchIndex Index = new SearchIndex(); //Index of every line logged, built when search is first used then updated by the writer
+
+    public static boolean Enabled = !"false".equalsIgnoreCase(System.getProperty("chatclient.log")); //-Dchatclient.log=false to turn logging off
+    public static Path Directory = Paths.get(System.getProperty("chatclient.logdir", Paths.get(System.getProperty("user.home"), ".chatclient", "logs").toString())); //Where logs are written
+
+    /**
+     * A line waiting to be written
+     */
+    private static class Record
+    {
+        final String network; //Server connection name
+        final String tab; //Lower case tab name
+        final long time; //System.currentTimeMillis when the line was logged
+        final ChatLine line;
+        int segment; //Segment number the record was written to, set by the writer. 0 if it never reached the file
+        int offset; //Offset of the record in the segment, set by the writer
+        int length; //Bytes of the record in the segment, set by the writer
+
+        Record(String network, String tab, long time, ChatLine line)
+        {
+            this.network = network;
+            this.tab = tab;
+            this.time = time;
+            this.line = line;
+        }
+    }
+
+    /**
+     * A record read back from a segment file
+     */
+    public static class Entry
+    {
+        public final long time; //System.currentTimeMillis when the line was logged
+        public final ChatLine line;
+        public int segment; //Segment the record was read from, 0 if unknown
+        public int offset; //Offset of the record in its segment
+
+        Entry(long time, ChatLine line)
+        {
+            this.time = time;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Receives the records of a segment as it is read
+     */
+    public interface EntryHandler
+    {
+        /**
+         * @param offset Offset of the record in the segment
+         * @param entry The record
+         */
+        void Entry(int offset, Entry entry);
+    }
+
+    /**
+     * Open segment file of one tab
+     */
+    private static class Segment
+    {
+        final Path directory; //Directory of the tab
+        FileChannel channel; //Segment being appended to
+        int number; //Segment number, in the file name
+        long size; //Bytes in the file, including buffered bytes
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE); //Records not yet written to the file
+        final ArrayList<Record> buffered = new ArrayList<>(); //Records in the buffer, dropped again if writing it fails
+
+        Segment(Path directory)
+        {
+            this.directory = directory;
+        }
+    }
+
+    private static final ArrayBlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final AtomicLong dropped = new AtomicLong(); //Lines dropped because the queue was full or a write failed
+    private static final AtomicLong written = new AtomicLong(); //Lines written
+    private static Thread writer; //Background writer, started by the first line
+    private static volatile boolean running;
+    private static boolean hookAdded; //If the shutdown hook that writes the rest of the queue has been added
+
+    //Writer thread state
+    private static final LinkedHashMap<String, Segment> segments = new LinkedHashMap<String, Segment>(16, 0.75f, true) { //Open segments by network and tab, in least recently used order
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Segment> eldest) {
+            if(size() <= MAX_OPEN_FILES) return false;
+            Close(eldest.getValue());
+            return true;
+        }
+    };
+
+    /**
+     * Queues a line to be logged. Never blocks, safe to call from any thread
+     * @param network Server connection name eg host:port
+     * @param tab Tab the line is shown in
+     * @param line Line to log
+     */
+    public static void Append(String network, String tab, ChatLine line)
+    {
+        if(!Enabled) return;
+        if(!running)
+            Start();
+        if(!queue.offer(new Record(network, tab.toLowerCase(Locale.ROOT), System.currentTimeMillis(), line)))
+            dropped.incrementAndGet(); //Logging fell behind, never stall the caller
+    }
+
+    /**
+     * @return Number of lines not logged because the writer fell behind or a write failed
+     */
+    public static long GetDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * @return Number of lines written
+     */
+    public static long GetWritten()
+    {
+        return written.get();
+    }
+
+    /**
+     * @return Directory the segments of a tab are written to
+     */
+    public static Path TabDirectory(String network, String tab)
+    {
+        return Directory.resolve(FileName(network)).resolve(FileName(tab.toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * Writes everything queued and stops the writer, waiting briefly for it to finish. Logging starts again on the next line
+     */
+    public static void Close()
+    {
+        Thread current;
+        synchronized (ChatLog.class)
+        {
+            running = false;
+            current = writer;
+            writer = null;
+        }
+        if(current == null) return;
+        try {
+            current.join(TimeUnit.SECONDS.toMillis(2));
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static synchronized void Start()
+    {
+        if(running) return;
+        running = true;
+        writer = new Thread(ChatLog::WriteLoop, "irc-log");
+        writer.setDaemon(true); //Close or the shutdown hook writes what is left
+        writer.start();
+        if(!hookAdded)
+        {
+            Runtime.getRuntime().addShutdownHook(new Thread(ChatLog::Close));
+            hookAdded = true;
+        }
+    }
+
+    /**
+     * Takes batches of queued lines, buffers them per tab and writes each tab's buffer once per batch
+     */
+    private static void WriteLoop()
+    {
+        ArrayList<Record> batch = new ArrayList<>();
+        ArrayList<Segment> dirty = new ArrayList<>(); //Segments with buffered records
+        while(running || !queue.isEmpty())
+        {
+            try {
+                Record first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if(first == null) continue;
+                batch.add(first);
+            }
+            catch (InterruptedException ex)
+            {
+                break;
+            }
+            queue.drainTo(batch, 4096);
+            for(Record record : batch)
+            {
+                Segment segment = GetSegment(record);
+                if(segment == null || !Encode(segment, record))
+                {
+                    dropped.incrementAndGet();
+                    continue;
+                }
+                if(!dirty.contains(segment))
+                    dirty.add(segment);
+                written.incrementAndGet();
+            }
+            for(Segment segment : dirty)
+                Flush(segment);
+            boolean index = Index.IsActive(); //Checked after flushing, lines written before the index was built are read from disk by it
+            for(Record record : batch) //Index once on disk so searches can read the records back, a failed flush cleared the segment of its records
+            {
+                if(index && record.segment > 0)
+                    Index.Add(FileName(record.network), FileName(record.tab), record.time, record.segment, record.offset, record.line.nick, record.line.text);
+            }
+            batch.clear();
+            dirty.clear();
+        }
+        for(Segment segment : segments.values())
+            Close(segment);
+        segments.clear();
+    }
+
+    /**
+     * Gets the open segment of a record's tab, opening the newest segment file or a new one if needed
+     */
+    private static Segment GetSegment(Record record)
+    {
+        String key = record.network + "\n" + record.tab;
+        Segment segment = segments.get(key);
+        if(segment != null && segment.channel != null) return segment;
+        segment = new Segment(TabDirectory(record.network, record.tab));
+        try {
+            Files.createDirectories(segment.directory);
+            segment.number = 1;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(segment.directory, "*.log")) //Continue the newest segment
+            {
+                for(Path file : files)
+                    segment.number = Math.max(segment.number, SegmentNumber(file));
+            }
+            Open(segment);
+        }
+        catch (IOException ex)
+        {
+            return null;
+        }
+        segments.put(key, segment);
+        return segment;
+    }
+
+    /**
+     * Encodes a record into a segment's buffer, writing the buffer out or rolling to a new segment first if needed
+     * @return False if the record could not be written
+     */
+    private static boolean Encode(Segment segment, Record record)
+    {
+        if(segment.channel == null) return false; //Closed by a failed write earlier in this batch
+        ChatLine line = record.line;
+        byte[] nick = line.nick == null ? new byte[0] : line.nick.getBytes(StandardCharsets.UTF_8);
+        String text = line.text.length() > MAX_TEXT_LENGTH ? line.text.substring(0, MAX_TEXT_LENGTH) : line.text;
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 3 + 2 + nick.length + textBytes.length; //Body length
+        int total = length + 8; //With both length fields
+        try {
+            if(segment.size + total > SEGMENT_SIZE && segment.size > 0) //Roll to the next segment
+            {
+                Flush(segment);
+                if(segment.channel == null) return false; //Write failed
+                segment.channel.close();
+                segment.number++;
+                Open(segment);
+            }
+            if(total > segment.buffer.remaining())
+            {
+                Flush(segment);
+                if(segment.channel == null) return false; //Write failed
+            }
+        }
+        catch (IOException ex)
+        {
+            return false;
+        }
+        ByteBuffer buffer = segment.buffer;
+        buffer.putInt(length);
+        buffer.putLong(record.time);
+        buffer.put((byte) ((line.newLine ? FLAG_NEW_LINE : 0) | (line.nick != null ? FLAG_NICK : 0)));
+        buffer.put(ChatLine.ColorIndex(line.color));
+        buffer.put(ChatLine.ColorIndex(line.nickColor));
+        buffer.putShort((short) nick.length);
+        buffer.put(nick);
+        buffer.put(textBytes);
+        buffer.putInt(length);
+        record.segment = segment.number;
+        record.offset = (int) segment.size;
+        record.length = total;
+        segment.buffered.add(record);
+        segment.size += total;
+        return true;
+    }
+
+    /**
+     * Reads one record
+     * @param file Segment file
+     * @param offset Offset of the record in the segment
+     * @return The record
+     * @throws IOException If the file could not be read or there is no valid record at the offset
+     */
+    public static Entry Read(Path file, long offset) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            ReadFully(channel, header, offset);
+            int length = header.getInt(0);
+            if(length < 13 || length > BUFFER_SIZE)
+                throw new IOException("Bad record at " + offset + " in " + file);
+            ByteBuffer body = ByteBuffer.allocate(length);
+            ReadFully(channel, body, offset + 4);
+            body.flip();
+            return Decode(body, length);
+        }
+    }
+
+    /**
+     * Reads every record of a segment from oldest to newest. Stops at the first damaged or partly written record
+     * @param file Segment file
+     * @param handler Receives each record
+     * @throws IOException If the file could not be read
+     */
+    public static void ReadSegment(Path file, EntryHandler handler) throws IOException
+    {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        while(data.remaining() >= 4)
+        {
+            int offset = data.position();
+            int length = data.getInt();
+            if(length < 13 || length + 4 > data.remaining() || data.getInt(offset + 4 + length) != length) return;
+            ByteBuffer body = data.slice();
+            body.limit(length);
+            handler.Entry(offset, Decode(body, length));
+            data.position(offset + 8 + length);
+        }
+    }
+
+    /**
+     * @return Segment file of a tab
+     */
+    public static Path SegmentFile(Path tabDirectory, int number)
+    {
+        return tabDirectory.resolve(String.format("%08d.log", number));
+    }
+
+    /**
+     * Decodes a record body
+     * @param body Buffer positioned at the start of the body
+     * @param length Body length
+     */
+    static Entry Decode(ByteBuffer body, int length)
+    {
+        long time = body.getLong();
+        int flags = body.get();
+        String color = ColorName(body.get());
+        String nickColor = ColorName(body.get());
+        int nickLength = body.getShort() & 0xFFFF;
+        String nick = null;
+        int start = body.position();
+        if((flags & FLAG_NICK) != 0)
+            nick = new String(body.array(), body.arrayOffset() + start, nickLength, StandardCharsets.UTF_8);
+        String text = new String(body.array(), body.arrayOffset() + start + nickLength, length - 13 - nickLength, StandardCharsets.UTF_8);
+        return new Entry(time, new ChatLine(nick, nick == null ? null : nickColor, text, color, (flags & FLAG_NEW_LINE) != 0));
+    }
+
+    private static String ColorName(byte index)
+    {
+        return index >= 0 && index < ChatLine.COLORS.length ? ChatLine.COLORS[index] : "black";
+    }
+
+    private static void ReadFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position + buffer.position());
+            if(read < 0)
+                throw new IOException("Unexpected end of log segment");
+        }
+    }
+
+    private static void Open(Segment segment) throws IOException
+    {
+        Path file = SegmentFile(segment.directory, segment.number);
+        segment.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segment.size = segment.channel.size();
+        if(segment.size >= SEGMENT_SIZE) //Newest segment is already full
+        {
+            segment.channel.close();
+            segment.number++;
+            Open(segment);
+        }
+    }
+
+    /**
+     * Writes a segment's buffered records to its file
+     */
+    private static void Flush(Segment segment)
+    {
+        ByteBuffer buffer = segment.buffer;
+        if(segment.channel == null)
+        {
+            buffer.clear();
+            segment.buffered.clear();
+            return;
+        }
+        buffer.flip();
+        try {
+            while(buffer.hasRemaining())
+                segment.channel.write(buffer);
+        }
+        catch (IOException ex)
+        {
+            segment.size -= buffer.remaining();
+            for(Record record : segment.buffered)
+            {
+                if(record.offset + record.length > segment.size) //Not fully written, counted as dropped and not indexed
+                {
+                    record.segment = 0;
+                    written.decrementAndGet();
+                    dropped.incrementAndGet();
+                }
+            }
+            try {
+                segment.channel.close(); //Reopened by the next line for this tab
+            }
+            catch (IOException ignored) { }
+            segment.channel = null;
+        }
+        buffer.clear();
+        segment.buffered.clear();
+    }
+
+    private static void Close(Segment segment)
+    {
+        if(segment.channel == null) return;
+        Flush(segment);
+        try {
+            if(segment.channel != null)
+                segment.channel.close();
+        }
+        catch (IOException ignored) { }
+        segment.channel = null;
+    }
+
+    /**
+     * @return Number in a segment file name eg 00000012.log is 12, 0 if the name is not a segment number
+     */
+    static int SegmentNumber(Path file)
+    {
+        String name = file.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - 4));
+        }
+        catch (NumberFormatException ex)
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * Makes a server or tab name safe to use as a file name
+     */
+    static String FileName(String name)
+    {
+        StringBuilder builder = new StringBuilder(name.length());
+        for(int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            builder.append(Character.isLetterOrDigit(c) || c == '#' || c == '.' || c == '-' || c == '_' ? c : '_');
+        }
+        return builder.length() == 0 ? "_" : builder.toString();
+    }
+}
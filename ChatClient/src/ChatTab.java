@@ -5,35 +5,102 @@
  */
 
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultCaret;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Highlighter;
+import javax.swing.text.html.HTML;
 import javax.swing.text.html.HTMLDocument;
 import javax.swing.text.html.HTMLEditorKit;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ChatTab {
+    public enum ViewType //How a tab renders its chat
+    {
+        HTML, //Editor pane with an HTML document, lays out the whole history
+        LINES //Virtualized list backed by a line store, only paints visible rows
+    }
+
+    public static ViewType DefaultViewType = "lines".equalsIgnoreCase(System.getProperty("chatclient.view")) ? ViewType.LINES : ViewType.HTML; //View for new tabs, set with -Dchatclient.view=lines
+    public static int DefaultMaxLines = 5000; //Default scrollback limit in lines for new tabs, 0 for unlimited
+    public static int DefaultMaxChars = 0; //Default scrollback limit in document characters for new tabs, 0 for unlimited
+    public static int HistoryPageLines = 200; //Lines of logged history shown when a tab opens, and paged in each time the view is scrolled to the top
+
+    private static final ExecutorService historyReader = Executors.newSingleThreadExecutor(r -> { //Does every tab's log reads and seeks off the event thread, in the order they were asked for
+        Thread thread = new Thread(r, "chat-history");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public String name; //Name of chat tab eg '#112Test'
-    public JEditorPane textArea; //Main text area for viewing chat
-    public HTMLEditorKit editorKit; //Module for styling text as HTML so it can be coloured
-    public HTMLDocument htmlDocument; //Document for HTML formatted text to be appended to
+    public ViewType viewType; //How this tab renders its chat
+    public JEditorPane textArea; //Main text area for viewing chat, null for the line view
+    public HTMLEditorKit editorKit; //Module for styling text as HTML so it can be coloured, null for the line view
+    public HTMLDocument htmlDocument; //Document for HTML formatted text to be appended to, null for the line view
+    public JList<String> lineList; //Virtualized list for viewing chat, null for the HTML view
+    public LineStore lineStore; //Compact store of lines shown by the line list, null for the HTML view
     public JPanel container; //Parent container for text area, text input and buttons
     public JScrollPane scrollPane; //Scroll pane to allow user to scroll text area
     public ServerConnection server; //Parent server context
 
+    private int maxLines = DefaultMaxLines; //Scrollback limit in lines, 0 for unlimited
+    private int maxChars = DefaultMaxChars; //Scrollback limit in characters, 0 for unlimited
+    private ArrayDeque<int[]> chunks = new ArrayDeque<>(); //Line count and document length of each append to the HTML view, oldest first
+    private int lineCount = 0; //Lines currently in the HTML document
+    private Object searchHighlight; //Highlight of the line found by the search window, null if none
+    private LogCursor history; //Cursor before the oldest line shown, null if the tab has no history or it is still being opened
+    private boolean loadingHistory = false; //If a page of history is being read
+    private ArrayDeque<int[]> historyPositions = new ArrayDeque<>(); //Log segment and offset of each history line shown, oldest first
+    private long[] liveStart; //Log position of the first line appended live, the cursor goes back here once all history lines are trimmed. Only used on the history reader thread
+    private ArrayList<ChatLine> earlyLines; //Lines appended before the first page of history arrived, null once it has
+
     public ChatTab(String name, ServerConnection serverConnection, boolean defaultChat)
+    {
+        this(name, serverConnection, defaultChat, DefaultViewType);
+    }
+
+    public ChatTab(String name, ServerConnection serverConnection, boolean defaultChat, ViewType viewType)
     {
         this.server = serverConnection; //Set parent server context
+        this.viewType = viewType;
         container = new JPanel(); //Create outermost container
         container.setLayout(new BoxLayout(container, BoxLayout.PAGE_AXIS)); //Set layout for the parent container to make child elements position correctly
-        textArea = new JEditorPane();  //HTML formatted text area
-        textArea.setEditable(false); //Disallow user from typing in this box
-        textArea.setContentType("text/html"); //Set text area as an HTML formatted document
-        editorKit = (HTMLEditorKit)textArea.getEditorKit(); //Get the HTML editor for this text area
-        htmlDocument = (HTMLDocument) textArea.getDocument(); //Get the document to append the text to
-        textArea.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE)); //Set the max size to max so that free space is filled and it auto-resizes
-        scrollPane = new JScrollPane(textArea); // put scrollbars around it
-        DefaultCaret caret = (DefaultCaret)textArea.getCaret(); //Get the caret for the text area
-        caret.setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE); //Set the caret to move to the end of the text when new text is appended (makes chat scroll down)
+        if(viewType == ViewType.LINES)
+        {
+            lineStore = new LineStore();
+            lineList = new JList<String>(lineStore) {
+                @Override
+                public boolean getScrollableTracksViewportWidth() { //Rows are as wide as the view, no horizontal scrolling
+                    return true;
+                }
+            };
+            lineList.setCellRenderer(new LineStore.Renderer()); //Paint rows straight from the store
+            lineList.setFixedCellHeight(lineList.getFontMetrics(lineList.getFont()).getHeight() + 2); //Fixed row size means the list never measures every row
+            lineList.setFixedCellWidth(1);
+            lineList.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE)); //Fill free space
+            scrollPane = new JScrollPane(lineList); // put scrollbars around it
+        }
+        else
+        {
+            textArea = new JEditorPane();  //HTML formatted text area
+            textArea.setEditable(false); //Disallow user from typing in this box
+            textArea.setContentType("text/html"); //Set text area as an HTML formatted document
+            editorKit = (HTMLEditorKit)textArea.getEditorKit(); //Get the HTML editor for this text area
+            htmlDocument = (HTMLDocument) textArea.getDocument(); //Get the document to append the text to
+            textArea.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE)); //Set the max size to max so that free space is filled and it auto-resizes
+            scrollPane = new JScrollPane(textArea); // put scrollbars around it
+            DefaultCaret caret = (DefaultCaret)textArea.getCaret(); //Get the caret for the text area
+            caret.setUpdatePolicy(DefaultCaret.NEVER_UPDATE); //Scrolling is handled in Append so the view only follows new text when already at the bottom
+        }
         container.add(scrollPane); //Add the scroll pane to the main container
 
         JPanel inputContainer = new JPanel(new GridBagLayout()); //Create a new container for the buttons and text input
@@ -78,4 +145,326 @@ public class ChatTab {
         container.add(inputContainer); //Add container to parent container
         container.setPreferredSize(new Dimension(800, 600)); //Set preferred starting size for this tab
     }
+
+    /**
+     * Set the scrollback limit for this tab. When either limit is passed the oldest lines are removed in bulk.
+     * @param maxLines Max lines to keep, 0 for unlimited
+     * @param maxChars Max characters to keep, 0 for unlimited
+     */
+    public void SetScrollbackLimit(int maxLines, int maxChars)
+    {
+        this.maxLines = Math.max(0, maxLines);
+        this.maxChars = Math.max(0, maxChars);
+    }
+
+    /**
+     * Appends lines to the end of the chat, then trims the oldest lines if the scrollback limit was passed.
+     * If the view was at the bottom it follows the new text, otherwise it stays on the text the user is reading.
+     * Must be called on the event thread.
+     * @param lines Lines to append
+     */
+    public void Append(List<ChatLine> lines)
+    {
+        JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+        boolean atBottom = scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum() - 4; //Allow a few pixels of slack
+        int hold = atBottom ? 0 : Math.min(historyPositions.size(), maxLines); //Paged in history the user is scrolled up reading is kept on top of the limit, at most one limit's worth
+        if(earlyLines != null && earlyLines.size() < HistoryPageLines)
+            earlyLines.addAll(lines.subList(0, Math.min(lines.size(), HistoryPageLines - earlyLines.size())));
+        int removedHeight;
+        if(viewType == ViewType.LINES)
+        {
+            lineStore.AddAll(lines); //One list update for all lines
+            removedHeight = TrimLines(hold);
+        }
+        else
+        {
+            StringBuilder html = new StringBuilder();
+            for(ChatLine line : lines)
+                line.AppendHtml(html);
+            int start = htmlDocument.getLength();
+            try {
+                editorKit.insertHTML(htmlDocument, start, html.toString(), 0, 0, HTML.Tag.FONT); //Write all lines in one insert
+            }
+            catch (BadLocationException | IOException ex)
+            {
+                return;
+            }
+            chunks.addLast(new int[] { lines.size(), htmlDocument.getLength() - start });
+            lineCount += lines.size();
+            removedHeight = TrimDocument(atBottom, hold);
+        }
+
+        if(atBottom) //Follow new text once the layout has been updated
+            SwingUtilities.invokeLater(() -> scrollBar.setValue(scrollBar.getMaximum()));
+        else if(removedHeight > 0) //Keep the text the user is reading in the same place
+            SwingUtilities.invokeLater(() -> scrollBar.setValue(Math.max(0, scrollBar.getValue() - removedHeight)));
+    }
+
+    /**
+     * @return If the scrollback limit has been passed by an eighth. Trimming waits for this so removals happen in bulk rather than on every append
+     * @param hold Lines allowed over the line limit
+     */
+    private boolean OverLimit(int lines, long chars, int hold)
+    {
+        return (maxLines > 0 && lines > maxLines + hold + maxLines / 8) || (maxChars > 0 && chars > maxChars + maxChars / 8);
+    }
+
+    /**
+     * Removes the oldest lines from the line store in one list change while the tab is over its scrollback limit.
+     * @param hold Lines allowed over the line limit
+     * @return Height in pixels of the removed rows
+     */
+    private int TrimLines(int hold)
+    {
+        if(!OverLimit(lineStore.getSize(), lineStore.GetChars(), hold)) return 0;
+        int remove = maxLines > 0 ? lineStore.getSize() - maxLines - hold : 0;
+        long chars = lineStore.GetChars();
+        for(int i = 0; maxChars > 0 && chars > maxChars && i < lineStore.getSize() - 1; i++) //Count lines to remove for the character limit
+        {
+            chars -= lineStore.getElementAt(i).length();
+            remove = Math.max(remove, i + 1);
+        }
+        lineStore.RemoveOldest(remove);
+        HistoryTrimmed(remove);
+        return remove * lineList.getFixedCellHeight();
+    }
+
+    /**
+     * Removes the oldest appended chunks from the HTML document in one change while the tab is over its scrollback limit.
+     * @param atBottom If the view is at the bottom, in which case the height of the removed text is not needed
+     * @param hold Lines allowed over the line limit
+     * @return Height in pixels of the removed text, 0 if nothing was removed or the height was not measured
+     */
+    private int TrimDocument(boolean atBottom, int hold)
+    {
+        if(!OverLimit(lineCount, htmlDocument.getLength(), hold)) return 0;
+
+        int removeLength = 0;
+        int removeLines = 0;
+        int length = htmlDocument.getLength();
+        while(chunks.size() > 1 //Always keep the newest chunk
+                && ((maxLines > 0 && lineCount - removeLines > maxLines + hold) || (maxChars > 0 && length - removeLength > maxChars)))
+        {
+            int[] oldest = chunks.removeFirst();
+            removeLines += oldest[0];
+            removeLength += oldest[1];
+        }
+        if(removeLength == 0) return 0;
+
+        int removedHeight = 0;
+        try {
+            if(!atBottom) //Measure how far the remaining text will move up
+            {
+                Rectangle2D end = textArea.modelToView2D(removeLength);
+                if(end != null)
+                    removedHeight = (int) end.getY();
+            }
+            htmlDocument.remove(0, removeLength);
+            lineCount -= removeLines;
+            HistoryTrimmed(removeLines);
+        }
+        catch (BadLocationException ex)
+        {
+            return 0;
+        }
+        return removedHeight;
+    }
+
+    /**
+     * Shows the last page of a tab's logged history and pages older lines in when the view is scrolled to the top.
+     * Only the pages viewed are read, however large the log is. The log is opened off the event thread.
+     * Must be called on the event thread, before any line is appended so live lines that reach the log first are not shown twice
+     * @param directory Tab log directory, see ChatLog.TabDirectory
+     */
+    public void EnableHistory(Path directory)
+    {
+        earlyLines = new ArrayList<>();
+        loadingHistory = true;
+        JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+        scrollBar.addAdjustmentListener(e -> {
+            if(!e.getValueIsAdjusting() && scrollBar.getValue() == 0 && scrollBar.getMaximum() > scrollBar.getVisibleAmount()) //Scrolled to the top
+                LoadOlder();
+        });
+        historyReader.execute(() -> {
+            LogCursor cursor = new LogCursor(directory); //Lists the log's segments
+            liveStart = cursor.GetPosition();
+            ArrayList<ChatLog.Entry> entries = ReadPage(cursor);
+            SwingUtilities.invokeLater(() -> {
+                history = cursor;
+                loadingHistory = false;
+                RemoveEarlyLines(entries);
+                earlyLines = null;
+                Prepend(entries);
+            });
+        });
+    }
+
+    /**
+     * Reads the page of history before the oldest line shown off the event thread, then inserts it at the top
+     */
+    private void LoadOlder()
+    {
+        if(history == null || loadingHistory || !history.HasOlder()) return;
+        loadingHistory = true;
+        LogCursor cursor = history;
+        historyReader.execute(() -> {
+            ArrayList<ChatLog.Entry> entries = ReadPage(cursor);
+            SwingUtilities.invokeLater(() -> {
+                loadingHistory = false;
+                Prepend(entries);
+            });
+        });
+    }
+
+    /**
+     * Reads the page before a cursor, on the history reader thread
+     * @return Lines oldest first, empty if the log is unreadable, the tab just has no more history
+     */
+    private static ArrayList<ChatLog.Entry> ReadPage(LogCursor cursor)
+    {
+        try {
+            return cursor.ReadOlder(HistoryPageLines);
+        }
+        catch (IOException ex)
+        {
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Lines that arrived just before the tab was created may already be in the log and also appended live.
+     * Drops them from the end of the first page, and moves the live start back to them so trimming stays in step with the log
+     */
+    private void RemoveEarlyLines(ArrayList<ChatLog.Entry> entries)
+    {
+        for(int overlap = Math.min(earlyLines.size(), entries.size()); overlap > 0; overlap--)
+        {
+            boolean match = true;
+            for(int i = 0; i < overlap && match; i++)
+            {
+                ChatLine logged = entries.get(entries.size() - overlap + i).line;
+                ChatLine live = earlyLines.get(i);
+                match = logged.text.equals(live.text) && (logged.nick == null ? live.nick == null : logged.nick.equals(live.nick));
+            }
+            if(match)
+            {
+                ChatLog.Entry first = entries.get(entries.size() - overlap);
+                historyReader.execute(() -> liveStart = new long[] { first.segment, first.offset }); //Before any seek queued by a later trim
+                entries.subList(entries.size() - overlap, entries.size()).clear();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Inserts history lines above everything shown, keeping the view on the text the user is reading
+     * @param entries Lines from the log, oldest first
+     */
+    private void Prepend(ArrayList<ChatLog.Entry> entries)
+    {
+        if(entries.isEmpty()) return;
+        JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+        boolean atBottom = scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum() - 4;
+        int oldValue = scrollBar.getValue();
+        int oldMaximum = scrollBar.getMaximum();
+        ArrayList<ChatLine> lines = new ArrayList<>(entries.size());
+        for(int i = entries.size() - 1; i >= 0; i--) //Positions are kept oldest first, add the page in front newest first
+        {
+            ChatLog.Entry entry = entries.get(i);
+            historyPositions.addFirst(new int[] { entry.segment, entry.offset });
+        }
+        for(ChatLog.Entry entry : entries)
+            lines.add(entry.line);
+        if(viewType == ViewType.LINES)
+            lineStore.PrependAll(lines); //One list update for the page
+        else
+        {
+            StringBuilder html = new StringBuilder();
+            for(ChatLine line : lines)
+                line.AppendHtml(html);
+            int length = htmlDocument.getLength();
+            try {
+                editorKit.insertHTML(htmlDocument, 0, html.toString(), 0, 0, HTML.Tag.FONT); //Whole page in one insert at the top
+            }
+            catch (BadLocationException | IOException ex)
+            {
+                return;
+            }
+            chunks.addFirst(new int[] { lines.size(), htmlDocument.getLength() - length });
+            lineCount += lines.size();
+        }
+        SwingUtilities.invokeLater(() -> { //Once the layout has been updated
+            if(atBottom)
+                scrollBar.setValue(scrollBar.getMaximum());
+            else
+                scrollBar.setValue(oldValue + scrollBar.getMaximum() - oldMaximum); //Keep the text the user is reading in the same place
+        });
+    }
+
+    /**
+     * Moves the history cursor forward after the oldest lines were trimmed, so scrolling up pages them in again
+     * @param removed Number of lines removed from the top of the tab
+     */
+    private void HistoryTrimmed(int removed)
+    {
+        if(history == null || removed <= 0) return;
+        LogCursor cursor = history;
+        int fromHistory = Math.min(removed, historyPositions.size());
+        for(int i = 0; i < fromHistory; i++)
+            historyPositions.removeFirst();
+        if(!historyPositions.isEmpty())
+        {
+            int[] oldest = historyPositions.peekFirst();
+            historyReader.execute(() -> cursor.Seek(oldest[0], oldest[1])); //After any page still being read
+            return;
+        }
+        int skip = removed - fromHistory; //Live lines that were trimmed too
+        historyReader.execute(() -> { //Skipping reads the log
+            cursor.Seek((int) liveStart[0], liveStart[1]); //Every history line is gone, continue from the live lines
+            try {
+                cursor.SkipForward(skip);
+            }
+            catch (IOException ignored) { } //Paging restarts from where the skip stopped
+            liveStart = cursor.GetPosition();
+        });
+    }
+
+    /**
+     * Scrolls to and highlights the newest occurrence of a line in the tab. Must be called on the event thread.
+     * @param line Line to find
+     * @return False if the line is no longer in the tab's scrollback
+     */
+    public boolean ShowLine(ChatLine line)
+    {
+        String text = line.nick != null ? line.nick + ": " + line.text : line.text; //Text as the views show it
+        if(viewType == ViewType.LINES)
+        {
+            for(int i = lineStore.getSize() - 1; i >= 0; i--)
+            {
+                if(lineStore.getElementAt(i).equals(text))
+                {
+                    lineList.setSelectedIndex(i);
+                    lineList.ensureIndexIsVisible(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+        try {
+            int start = htmlDocument.getText(0, htmlDocument.getLength()).lastIndexOf(text);
+            if(start == -1) return false;
+            Highlighter highlighter = textArea.getHighlighter();
+            if(searchHighlight != null)
+                highlighter.removeHighlight(searchHighlight);
+            searchHighlight = highlighter.addHighlight(start, start + text.length(), new DefaultHighlighter.DefaultHighlightPainter(Color.YELLOW));
+            Rectangle2D view = textArea.modelToView2D(start);
+            if(view != null)
+                textArea.scrollRectToVisible(view.getBounds());
+            return true;
+        }
+        catch (BadLocationException ex)
+        {
+            return false;
+        }
+    }
 }
@@ -6,20 +6,24 @@
 
 import javax.lang.model.type.NullType;
 import javax.swing.*;
-import javax.swing.text.html.HTML;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.WindowEvent;
 import java.nio.channels.CompletionHandler;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-public class ChatWindow {
+public class ChatWindow implements ConnectionListener {
     private String title;
     private ServerConnection server;
     public JTabbedPane tabbedPane; //Container to hold all the chat tabs in
-    private HashMap<String, ChatTab> chats = new HashMap<>(); //Dictionary of chats and their names
+    private HashMap<TargetRegistry.Target, ChatTab> chats = new HashMap<>(); //Dictionary of chats by the key of their name
     private JFrame frame; //Container to hold and arrange all the elements
+    private RenderQueue renderQueue = new RenderQueue(this); //Batches lines from the network thread into tab updates on the event thread
+    private ChannelListModel channelList = new ChannelListModel(); //Channels from the last LIST reply, filled from the network thread
+    private ListWindow listWindow; //Channel list window, created on the first LIST reply
 
     public ChatWindow(String title, ServerConnection server){
         this.server = server;
@@ -62,8 +66,7 @@ public class ChatWindow {
                     server.JoinChannel(result, new CompletionHandler<String, ServerConnection>() { //Begin async channel join
                         @Override
                         public void completed(String result, ServerConnection attachment) { //Completed handler for channel join
-                            ChatTab tab = attachment.chatWindow.CreateTab(result, false); //Create/get tab for the channel
-                            tabbedPane.setSelectedComponent(tab.container); //Select the tab
+                            ChannelJoined(result); //Create and select the tab for the channel
                         }
 
                         @Override
@@ -72,6 +75,8 @@ public class ChatWindow {
                                 WriteLine("Failed to join channel! Illegal channel name!", "red");
                             else if (exc instanceof CustomExceptions.ChannelFullException) //If the error is because the channel is full
                                 WriteLine("Failed to join channel! Channel is full!", "red");
+                            else //Over the server's channel limit, refused for another reason, timed out or the connection was lost
+                                WriteLine("Failed to join channel! " + exc.getMessage(), "red");
                         }
                     });
                 }
@@ -90,12 +95,8 @@ public class ChatWindow {
             AskUsernameWindow.getNick(new CompletionHandler<String, NullType>() { //Async callback for when user finishes entering nickname to chat with
                 @Override
                 public void completed(String result, NullType attachment) {
-                    if(chats.containsKey(result))//If the chat is already open
-                        tabbedPane.setSelectedComponent(chats.get(result).container); //Make the specified tab selected/active
-                    else {
-                        JPanel cont = CreateTab(result, false).container; //Create nickname tab, set to non deault chat tab
-                        tabbedPane.setSelectedComponent(cont); //Set selected tab
-                    }
+                    JPanel cont = CreateTab(result, false).container; //Get the open tab, or create a nickname tab, set to non deault chat tab
+                    tabbedPane.setSelectedComponent(cont); //Set selected tab
                 }
 
                 @Override
@@ -146,6 +147,11 @@ public class ChatWindow {
             server.Send("LIST "); //Send list channels command
         });
 
+        JButton searchButton = new JButton("Search history");
+        c.gridy = 7; //Grid Y position 7
+        buttonContainer.add(searchButton, c);
+        searchButton.addActionListener((ActionEvent e) -> SearchWindow.Show()); //Search window is shared by all servers
+
         JButton disconnectButton = new JButton("Disconnect");
         c.gridy = 8; //Grid Y position 8
         buttonContainer.add(disconnectButton, c);
@@ -153,6 +159,7 @@ public class ChatWindow {
             tabbedPane.setSelectedIndex(0); //Set the selected tab to the server tab
             server.Send("QUIT :Chat client closed."); //Send quit to the IRC server
             server.Disconnect(); //Disconnect from the server
+            ConnectionManager.Shutdown(); //Stop shared network threads
             System.exit(0); //Exit program
         });
 
@@ -180,33 +187,96 @@ public class ChatWindow {
     }
 
     /**
-     * Generate new chat tab for an individual chat
+     * Generate new chat tab for an individual chat. Must be called on the event thread
      * @param name Name of chat target
      * @param defaultChat Is this chat tab the default server chat
      * @return The tab that was created
      */
     public ChatTab CreateTab(String name, boolean defaultChat)
     {
-        name = name.toLowerCase();
-        if(chats.containsKey(name))
-            return chats.get(name);
-        ChatTab tab = new ChatTab(name, server, defaultChat); //Create new tab object
-        chats.put(name, tab); //Add the tab to the chats dictionary
-        tabbedPane.addTab(name, tab.container); //Add the tab to the GUI chats tabbed pane
+        return CreateTab(name, defaultChat, ChatTab.DefaultViewType);
+    }
+
+    /**
+     * Generate new chat tab for an individual chat using a specific view. Must be called on the event thread
+     * @param name Name of chat target
+     * @param defaultChat Is this chat tab the default server chat
+     * @param viewType How the tab renders chat. Ignored if the tab already exists
+     * @return The tab that was created, or the existing tab
+     */
+    public ChatTab CreateTab(String name, boolean defaultChat, ChatTab.ViewType viewType)
+    {
+        return CreateTab(TabKey(name), defaultChat, viewType);
+    }
+
+    /**
+     * Get or create the tab for a key from TabKey. Must be called on the event thread
+     * @param key Key of the chat target's name
+     * @param defaultChat Is this chat tab the default server chat
+     * @param viewType How the tab renders chat. Ignored if the tab already exists
+     * @return The tab that was created, or the existing tab
+     */
+    public ChatTab CreateTab(TargetRegistry.Target key, boolean defaultChat, ChatTab.ViewType viewType)
+    {
+        ChatTab tab = chats.get(key); //One lookup by identity, no string hashing
+        if(tab != null)
+            return tab;
+        String name = key.GetKey();
+        tab = new ChatTab(name, server, defaultChat, viewType); //Create new tab object
+        chats.put(key, tab); //Add the tab to the chats dictionary
+        tabbedPane.addTab(name, tab.container); //Add the tab to the GUI tabbed pane
+        if(!defaultChat && ChatLog.Enabled) //Channel and query tabs open with their last page of logged history
+            tab.EnableHistory(ChatLog.TabDirectory(server.Name, name));
         return tab; //Return the new tab
     }
 
+    /**
+     * Gets the key a tab is stored under, from the connection's target registry so eg "#Chat" and "#chat" share a tab.
+     * Safe to call from any thread
+     * @param name Tab name
+     * @return Key for the chats dictionary
+     */
+    public TargetRegistry.Target TabKey(String name)
+    {
+        return server.targets.Intern(name);
+    }
+
+    /**
+     * Selects a tab and scrolls to a line in it, for a search result. Must be called on the event thread
+     * @param logName Log directory name of the tab, "server" for the network tab
+     * @param line Line to show
+     * @return False if the line is no longer in the tab's scrollback
+     */
+    public boolean ShowLine(String logName, ChatLine line)
+    {
+        ChatTab tab = chats.get(TabKey("default"));
+        if(!logName.equals(LoggingListener.SERVER_TAB))
+        {
+            tab = null;
+            for(Map.Entry<TargetRegistry.Target, ChatTab> chat : chats.entrySet())
+            {
+                if(ChatLog.FileName(chat.getKey().GetKey()).equals(logName))
+                    tab = chat.getValue();
+            }
+            if(tab == null) //Tab was closed, open it again
+                tab = CreateTab(logName, false);
+        }
+        tabbedPane.setSelectedComponent(tab.container);
+        frame.toFront();
+        return tab.ShowLine(line);
+    }
+
     /**
      * Leaves a channel or chat
      * @param name Name of chat to leave
      */
     public void RemoveTab(String name)
     {
-        name = name.toLowerCase();
-        if(name.startsWith("#")) //Is a channel, if so, leave the channel
+        if(server.isupport.IsChannel(name)) //Is a channel, if so, leave the channel
             server.LeaveChannel(name);
-        tabbedPane.remove(chats.get(name).container); //Remove the chat tab from the GUI tabbed pane
-        chats.remove(name); //Remove the chat from the chats dictionary
+        ChatTab tab = chats.remove(TabKey(name)); //Remove the chat from the chats dictionary
+        if(tab != null)
+            tabbedPane.remove(tab.container); //Remove the chat tab from the GUI tabbed pane
     }
 
     /**
@@ -215,107 +285,160 @@ public class ChatWindow {
      */
     public void SetNetworkName(String name)
     {
-        tabbedPane.setTitleAt(0, name); //Set tab name at index 0
+        SwingUtilities.invokeLater(() -> tabbedPane.setTitleAt(0, name)); //Set tab name at index 0
+    }
+
+    @Override
+    public void RawLine(String line)
+    {
+        System.out.println(line); //Echo everything the server sends to the console
+    }
+
+    @Override
+    public void ServerMessage(String message, String color)
+    {
+        WriteLine(message, color);
     }
 
     /**
-     * Process incoming chat messages into the respective tab
-     * @param command Command sent by server
-     * @param source Source of the command
+     * Queue a block of server lines so they are written to the network tab in a single insert
      */
-    public void ProcessChat(String command, String source)
+    @Override
+    public void ServerBlock(List<String> lines, String color)
     {
-        command = command.substring(command.indexOf(" ") + 1); //Remove first command parameter
-        String nick = source.substring(1, source.indexOf("!~")); //Get nickname from source
-        String message = command.substring(command.indexOf(":") + 1); //Get the message from the command extended parameter
-        String dest = command.substring(0, command.indexOf(":") - 1).toLowerCase(); //Get the destination (usually a channel)
-
-        if(!dest.startsWith("#")) //If the destination is not a channel, eg, a private chat
-            dest = nick; //Set the destination to a personal nickname
-        ChatTab tab; //Chat to send the message to
-        if(!chats.containsKey(dest)) //If the chat already exists
-            tab = CreateTab(dest, false); //Get the existing chat
-        else //If the chat doesnt exist
-            tab = GetTab(dest); //Create a tab for the new chat
-        try {
-            //Insert the html formatted message into the respective chat tab
-            tab.editorKit.insertHTML(tab.htmlDocument, tab.htmlDocument.getLength(), "<font color='blue'>" + nick + "</font>: " + message + "<br>", 0, 0, HTML.getTag("font"));
-        }
-        catch (Exception ex)
-        {
+        ArrayList<ChatLine> block = new ArrayList<>(lines.size());
+        for(String line : lines)
+            block.add(new ChatLine(line, color));
+        renderQueue.AddBlock("default", block);
+    }
 
-        }
+    /**
+     * Lines of an IRCv3 batch are grouped so each tab gets them in one insert
+     */
+    @Override
+    public void BatchStarted(String type)
+    {
+        renderQueue.BeginGroup();
+    }
+
+    @Override
+    public void BatchEnded()
+    {
+        renderQueue.EndGroup();
+    }
+
+    @Override
+    public void TargetMessage(String target, String message, String color)
+    {
+        WriteLineToTab(message, color, target);
     }
 
     /**
-     * Send a chat message to a specified destination and display the message to the specified chat
-     * @param message Message to send
-     * @param source The source tab name for where to send the message and what tab to display the message
+     * Queue a chat message for the respective tab, the tab is created if needed
      */
-    public void SendChat(String message, String source)
+    @Override
+    public void ChatMessage(String target, String nick, String text, boolean own)
     {
-        source = source.toLowerCase();
-        server.Send("PRIVMSG " + source + " :" + message); //Send privmsg command to IRC server
-        ChatTab tab; //Tab to display the sent message in
-        if(!chats.containsKey(source)) //If the chat already exists
-            tab = CreateTab(source, false); //Get the existing chat
-        else //If the chat doesnt exist yet
-            tab = GetTab(source); //Create the chat
-        try { //Write chat to window
-            tab.editorKit.insertHTML(tab.htmlDocument, tab.htmlDocument.getLength(), "<font color='red'>" + server.nickName+ "</font>: " + message + "<br>", 0, 0, HTML.getTag("font"));
-        }
-        catch (Exception ex)
-        {
+        renderQueue.Add(target, new ChatLine(nick, own ? "red" : "blue", text)); //Own messages are red, everyone else is blue
+    }
 
-        }
+    @Override
+    public void NetworkNameChanged(String networkName)
+    {
+        SetNetworkName(networkName);
     }
 
-    public void WriteLineToTab(String message, String color, String tabName)
+    /**
+     * Moves tabs to the key their name has under the new case mapping. If two tabs now share a key the one already
+     * under it keeps it, the other is left open with a note so no later line opens a second tab
+     */
+    @Override
+    public void CaseMappingChanged()
     {
-        tabName = tabName.toLowerCase();
-        ChatTab tab;
-        if(!chats.containsKey(tabName))
-            tab = CreateTab(tabName, false);
-        else
-            tab = GetTab(tabName);
-        try { //Write chat to window
-            tab.editorKit.insertHTML(tab.htmlDocument, tab.htmlDocument.getLength(), "<font color='" + color + "'>" + message + "</font><br>", 0, 0, HTML.getTag("font"));
-        }
-        catch (Exception ex)
-        {
+        SwingUtilities.invokeLater(() -> { //Before any line handled after the change is shown
+            HashMap<TargetRegistry.Target, ChatTab> rekeyed = new HashMap<>();
+            ArrayList<ChatTab> merged = new ArrayList<>();
+            for(Map.Entry<TargetRegistry.Target, ChatTab> chat : chats.entrySet())
+            {
+                TargetRegistry.Target key = TabKey(chat.getValue().name);
+                if(key == chat.getKey() || !chats.containsKey(key) && !rekeyed.containsKey(key)) //Same key, or the only tab for it
+                    rekeyed.put(key, chat.getValue());
+                else
+                    merged.add(chat.getValue());
+            }
+            chats.clear();
+            chats.putAll(rekeyed);
+            for(ChatTab tab : merged)
+            {
+                ArrayList<ChatLine> note = new ArrayList<>();
+                note.add(new ChatLine("The server's case mapping changed, this chat continues in " + TabKey(tab.name).GetKey(), "red"));
+                tab.Append(note);
+            }
+        });
+    }
 
-        }
+    /**
+     * Create and select the tab for a joined channel
+     */
+    @Override
+    public void ChannelJoined(String channel)
+    {
+        SwingUtilities.invokeLater(() -> { //Join completes on the network thread, tabs are changed on the event thread
+            ChatTab tab = CreateTab(channel, false); //Create/get tab for the channel
+            tabbedPane.setSelectedComponent(tab.container); //Select the tab
+        });
     }
 
-    public void WriteLine(String message, String color)
+    @Override
+    public void ChannelListStarted()
     {
-        try
-        {
-            ChatTab tab = GetDefaultTab(); //Get default network chat tab
-            tab.editorKit.insertHTML(tab.htmlDocument, tab.htmlDocument.getLength(), "<font color='" + color + "'>" + message + "</font><br>", 0, 0, HTML.getTag("font"));
-        }
-        catch (Exception ex) { }
+        SwingUtilities.invokeLater(() -> {
+            if(listWindow == null)
+                listWindow = new ListWindow(channelList); //Created on first use, reused for every list after
+            listWindow.ListStarted(); //Clear and show the window
+        });
     }
 
-    public void Write(String message, String color)
+    /**
+     * Queue a channel for the list window, rows are added to the table in batches on the event thread
+     */
+    @Override
+    public void ChannelListed(String channel, int users, String topic)
     {
-        try
-        {
-            ChatTab tab = GetDefaultTab(); //Get default network chat tab
-            tab.editorKit.insertHTML(tab.htmlDocument, tab.htmlDocument.getLength(), "<font color='" + color + "'>" + message + "</font>", 0, 0, HTML.getTag("font"));
-        }
-        catch (Exception ex) { }
+        channelList.Add(channel, users, topic);
     }
 
-    private ChatTab GetDefaultTab()
+    @Override
+    public void ChannelListEnded()
     {
-        return chats.get("default");
+        SwingUtilities.invokeLater(() -> listWindow.ListEnded());
     }
 
-    private ChatTab GetTab(String name)
+
+    @Override
+    public void NicknameInUse()
+    {
+        SwingUtilities.invokeLater(() -> {
+            JOptionPane.showMessageDialog(null, "Sorry, that nickname is already in use!");
+            server.Disconnect();
+            ConnectionManager.Shutdown(); //Stop shared network threads
+            System.exit(0); //Exit program
+        });
+    }
+
+    public void WriteLineToTab(String message, String color, String tabName)
+    {
+        renderQueue.Add(tabName, new ChatLine(message, color));
+    }
+
+    public void WriteLine(String message, String color)
+    {
+        renderQueue.Add("default", new ChatLine(message, color)); //Write to default network chat tab
+    }
+
+    public void Write(String message, String color)
     {
-        name = name.toLowerCase();
-        return chats.get(name);
+        renderQueue.Add("default", new ChatLine(null, null, message, color, false)); //Write to default network chat tab without a line break
     }
 
     public void Write(String message)
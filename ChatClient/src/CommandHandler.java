@@ -4,118 +4,454 @@
  * ID: 300447277
  */
 
-import javax.swing.*;
 import java.nio.channels.CompletionHandler;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 public class CommandHandler {
+    public static final int MAX_BLOCK_LINES = 1000; //Max lines collected into one block before it is written out
+    public static final int MAX_BATCH_LINES = 20000; //Max lines held for one IRCv3 batch before they are handled early
+
+    /**
+     * An open IRCv3 batch. Lines of nested batches are held by the outermost one, which is handled as a unit when it ends
+     */
+    private static class Batch
+    {
+        final String id; //Reference tag of the batch
+        final String type; //Batch type eg "netsplit" or "chathistory"
+        final String target; //Channel or nick a chathistory batch is for, null for other types
+        final Batch root; //Outermost batch this one is nested in, itself if not nested
+        final ArrayList<String> lines; //Raw lines held until the outermost batch ends, only used on the root
+
+        Batch(String id, String type, String target, Batch parent)
+        {
+            this.id = id;
+            this.type = type;
+            this.target = target;
+            this.root = parent == null ? this : parent.root;
+            this.lines = parent == null ? new ArrayList<>() : null;
+        }
+    }
+
     private ServerConnection serverConnection;
 
-    private ArrayList<String> listItems = new ArrayList<>();
+    private IrcMessage message = new IrcMessage(); //Parsed view of the current line, reused for every line
+    private ReplyDispatcher dispatcher = new ReplyDispatcher(this::PrintFormatted); //Routes messages to handlers, prints anything unhandled
+    private boolean listing; //If a LIST reply is being received
+    private ArrayList<String> blockLines = new ArrayList<>(); //Lines of the multi reply block being collected, eg the MOTD
+    private int blockEnd = -1; //End numeric of the block being collected, -1 if none
+    private ArrayList<Batch> batches = new ArrayList<>(); //Open batches, usually none or one so a list beats a map
+    private boolean replaying = false; //If lines held by a batch are being handled
     public CommandHandler(ServerConnection serverConnection)
     {
         this.serverConnection = serverConnection;
+        RegisterHandlers();
+    }
+
+    /**
+     * Registers a handler for each numeric reply and command verb this client acts on.
+     * Anything not registered here is printed by the dispatcher's default handler.
+     */
+    private void RegisterHandlers()
+    {
+        dispatcher.Register(Replies.IRC_RPL_WELCOME, message -> {
+            PrintFormatted(message);
+            for(TargetRegistry.Target target : serverConnection.history.GetSeenTargets()) //Queries pick up where they left off, channels do when they are joined again
+            {
+                if(!serverConnection.isupport.IsChannel(target.GetKey()))
+                    StartBackfill(target, target.GetKey());
+            }
+        });
+        dispatcher.Register(Replies.IRC_ERR_NICKNAMEINUSE, message -> {
+            PrintFormatted(message);
+            if(!ConnectionManager.IsReconnecting(serverConnection)) //A reconnect retries later, our old session may still hold the name
+                serverConnection.listener.NicknameInUse(); //Let the front end decide whether to pick a new name or give up
+        });
+        dispatcher.Register(Replies.IRC_RPL_BOUNCE, message -> {
+            serverConnection.ProcessISupport(message);
+            PrintFormatted(message);
+        });
+        dispatcher.Register(Replies.IRC_RPL_NAMREPLY, message -> { //Channel user list: nickname, channel type, channel, names
+            if(message.ParamCount() >= 4)
+                serverConnection.roster.NamesReply(message.Param(2), message.Param(3));
+        });
+        dispatcher.Register(Replies.IRC_RPL_ENDOFNAMES, message -> { //Channel user list end
+            if(message.ParamCount() >= 2)
+                serverConnection.roster.EndOfNames(message.Param(1));
+        });
+        dispatcher.Register(Replies.IRC_RPL_LISTSTART, message -> { //List start
+            listing = true;
+            serverConnection.listener.ChannelListStarted();
+        });
+        dispatcher.Register(Replies.IRC_RPL_LIST, this::ProcessListItem); //List item, streamed to the listener rather than printed
+        dispatcher.Register(Replies.IRC_RPL_LISTEND, message -> { //List end
+            PrintFormatted(message); //Print command to the chat window
+            if(!listing) //Empty list with no start reply
+                serverConnection.listener.ChannelListStarted();
+            listing = false;
+            serverConnection.listener.ChannelListEnded();
+        });
+        RegisterBlock(Replies.IRC_RPL_MOTDSTART, Replies.IRC_RPL_ENDOFMOTD, Replies.IRC_RPL_MOTD); //Message of the day
+        RegisterBlock(Replies.IRC_RPL_HELPSTART, Replies.IRC_RPL_ENDOFHELP, Replies.IRC_RPL_HELPTXT); //Help text
+        RegisterBlock(-1, Replies.IRC_RPL_ENDOFINFO, Replies.IRC_RPL_INFO); //Server info
+        RegisterBlock(-1, Replies.IRC_RPL_ENDOFWHO, Replies.IRC_RPL_WHOREPLY); //WHO replies
+        RegisterBlock(Replies.IRC_RPL_USERSSTART, Replies.IRC_RPL_ENDOFUSERS, Replies.IRC_RPL_USERS, Replies.IRC_RPL_NOUSERS); //Users logged in to the server
+        RegisterBlock(-1, Replies.IRC_RPL_ENDOFLINKS, Replies.IRC_RPL_LINKS); //Server links
+
+        dispatcher.Register("CAP", this::ProcessCap);
+        dispatcher.Register("FAIL", message -> {
+            if(message.ParamIs(0, "CHATHISTORY")) //Server refused a backfill request, stop holding live lines
+                Release(serverConnection.history.FinishAll());
+            PrintFormatted(message);
+        });
+        dispatcher.Register("BATCH", this::ProcessBatch);
+        dispatcher.Register("PING", message -> serverConnection.Send("PONG " + message.RawParams()));
+        dispatcher.Register("PRIVMSG", this::ProcessChat);
+        dispatcher.Register("JOIN", message -> {
+            boolean self = message.NickIs(serverConnection.nickName);
+            serverConnection.roster.Joined(message.InternedParam(0), message.Nick(), message.User(), message.Host(), self);
+            if(self)
+            {
+                StartBackfill(serverConnection.targets.Intern(message.GetLine(), message.ParamStart(0), message.ParamEnd(0)), message.Param(0)); //Fetch what was said since we were last here
+            }
+        });
+        dispatcher.Register("PART", message -> //Channel leave, not printed
+            serverConnection.roster.Parted(message.Param(0), message.Nick(), message.NickIs(serverConnection.nickName)));
+        dispatcher.Register("KICK", message -> {
+            if(message.ParamCount() >= 2)
+                serverConnection.roster.Parted(message.Param(0), message.Param(1), serverConnection.isupport.Equal(message.Param(1), serverConnection.nickName));
+            PrintFormatted(message);
+        });
+        dispatcher.Register("QUIT", message -> {
+            serverConnection.roster.Quit(message.Nick());
+            PrintFormatted(message);
+        });
+        dispatcher.Register("NICK", message -> {
+            if(message.NickIs(serverConnection.nickName)) //Our own nickname changed
+                serverConnection.nickName = message.InternedParam(0);
+            serverConnection.roster.NickChanged(message.Nick(), message.InternedParam(0));
+            PrintFormatted(message);
+        });
+        dispatcher.Register("MODE", message -> {
+            if(serverConnection.isupport.IsChannel(message.Param(0))) //Channel mode, not a user mode
+                serverConnection.roster.ChannelMode(message.Param(0), message);
+            PrintFormatted(message);
+        });
+        dispatcher.Register("SQUIT", message -> serverConnection.Disconnect());
     }
 
-    public void HandleServerCommand(String command, ChatWindow chatWindow)
+    /**
+     * Registers handlers that collect a multi reply response into one block, which is written out in a single insert when the end reply arrives.
+     * @param start Numeric that starts the block, -1 if the block starts with its first body line
+     * @param end Numeric that ends the block
+     * @param body Numerics of the lines in the block
+     */
+    private void RegisterBlock(int start, int end, int... body)
     {
-        System.out.println(command);
-        String source = "";
-        String commandStart;
-        if(command.startsWith(":")) {
-            source = command.substring(0, command.indexOf(' '));;
-            command = command.substring(command.indexOf(' ') + 1);
+        ReplyDispatcher.ReplyHandler add = message -> {
+            if(blockEnd != end) //A different block was left open, eg its end reply never came
+                FlushBlock();
+            blockEnd = end;
+            blockLines.add(message.ParamsFrom(1)); //Same text PrintFormatted would print
+            if(blockLines.size() >= MAX_BLOCK_LINES) //Don't hold huge replies back, write what we have so far
+                FlushBlock();
+        };
+        if(start != -1)
+            dispatcher.Register(start, add);
+        for(int numeric : body)
+            dispatcher.Register(numeric, add);
+        dispatcher.Register(end, message -> {
+            add.Handle(message);
+            FlushBlock();
+        });
+    }
+
+    /**
+     * Writes out the lines of the block being collected, if any
+     */
+    private void FlushBlock()
+    {
+        if(!blockLines.isEmpty())
+        {
+            serverConnection.listener.ServerBlock(blockLines, "black");
+            blockLines = new ArrayList<>(); //The listener may hold on to the list
         }
+        blockEnd = -1;
+    }
 
-        if (command.contains(" "))
-            commandStart = command.substring(0, command.indexOf(' '));
+    /**
+     * Parses a line from the server and passes it to the handler registered for its numeric or verb.
+     * The line is parsed once into a reused message view which is passed to the handler.
+     * @param command Raw line received from the server
+     */
+    public synchronized void HandleServerCommand(String command)
+    {
+        serverConnection.listener.RawLine(command);
+        if(!message.Parse(command)) return; //Ignore lines with no command
+        RequestTracker.Request answered = serverConnection.requests.Match(message); //Request this line ends, told once the line is handled
+        Batch batch = !batches.isEmpty() && message.HasTags() && !message.CommandIs("BATCH") ? FindBatch(message) : null; //Only look at tags while a batch is open
+        if(batch != null)
+        {
+            batch.root.lines.add(command); //Held until the batch ends
+            if(batch.root.lines.size() >= MAX_BATCH_LINES) //Don't hold huge batches back, handle what we have so far
+                Replay(batch.root);
+        }
         else
-            commandStart = command;
+            dispatcher.Dispatch(message);
+        if(answered != null)
+            answered.Finish(serverConnection);
+    }
 
-        if(commandStart.chars().allMatch( Character::isDigit )) //If reply is number code
+    /**
+     * Forgets any open batch, block or list, for a new connection
+     */
+    public synchronized void Reset()
+    {
+        Release(serverConnection.history.FinishAll()); //Show live lines held for a backfill that will never finish
+        batches.clear();
+        blockLines = new ArrayList<>();
+        blockEnd = -1;
+        listing = false;
+    }
+
+    /**
+     * Handles CAP replies during and after registration: LS and NEW offer capabilities, ACK, NAK and DEL answer or withdraw them.
+     * Registration is finished with CAP END once every request has been answered
+     * @param message Parsed CAP reply: nickname or *, subcommand, optional * for more lines, capabilities
+     */
+    private void ProcessCap(IrcMessage message)
+    {
+        Capabilities caps = serverConnection.caps;
+        boolean more = message.ParamCount() > 3 && message.ParamIs(2, "*"); //Multi line LS reply, more follows
+        String list = message.Param(more ? 3 : 2);
+        if(message.ParamIs(1, "LS") || message.ParamIs(1, "NEW"))
         {
-            switch (Integer.parseInt(commandStart)) {
-                case Replies.IRC_RPL_WELCOME:
-                    serverConnection.ProcessPendingLogin(ServerConnection.LoginResult.SUCCESS);
-                    PrintFormatted(command, chatWindow);
-                    break;
-                case Replies.IRC_ERR_NICKNAMEINUSE:
-                    serverConnection.ProcessPendingLogin(ServerConnection.LoginResult.NAME_IN_USE);
-                    PrintFormatted(command, chatWindow);
-                    JOptionPane.showMessageDialog(null, "Sorry, that nickname is already in use!");
-                    serverConnection.Disconnect();
-                    System.exit(0); //Exit program
-                    break;
-                case Replies.IRC_ERR_ERRONEUSNICKNAME:
-                    serverConnection.ProcessPendingLogin(ServerConnection.LoginResult.BAD_NAME);
-                    PrintFormatted(command, chatWindow);
-                    break;
-                case Replies.IRC_RPL_BOUNCE:
-                    serverConnection.ProcessCallerID(command);
-                    PrintFormatted(command, chatWindow);
-                    break;
-                case 479:
-                    serverConnection.ProcessPendingJoin(ServerConnection.ChannelJoinResult.ILLEGAL_NAME, "");
-                    break;
-                case 353: case 366://Ignore channel user list start and channel user list end
-                    break;
-                case 321: //List start
-                    PrintFormatted(command, chatWindow); //Print command to the chat window
-                    listItems.clear(); //clear list
-                    break;
-                case 322: //List item
-                    PrintFormatted(command, chatWindow); //Print command to the chat window
-                    listItems.add(command); //Add item to list
-                    break;
-                case 323: //List end
-                    PrintFormatted(command, chatWindow); //Print command to the chat window
-                    ListWindow.HandleList(listItems); //Process/display list
-                    break;
-                default:
-                    PrintFormatted(command, chatWindow); //Print command to the chat window
+            caps.Offered(list);
+            if(more) return;
+            ArrayList<String> request = caps.Request();
+            if(!request.isEmpty())
+                serverConnection.Send("CAP REQ :" + String.join(" ", request));
+        }
+        else if(message.ParamIs(1, "ACK"))
+        {
+            caps.Acknowledged(list);
+            serverConnection.listener.ServerMessage("Capabilities enabled: " + caps.GetEnabled(), "green");
+        }
+        else if(message.ParamIs(1, "NAK"))
+            caps.Rejected(list);
+        else if(message.ParamIs(1, "DEL"))
+            caps.Removed(list);
+        if(caps.Finish())
+            serverConnection.Send("CAP END"); //Let registration continue
+    }
+
+    /**
+     * Opens or closes an IRCv3 batch. When the outermost batch closes its lines are handled as one unit
+     * @param message Parsed BATCH: +reference type params..., or -reference
+     */
+    private void ProcessBatch(IrcMessage message)
+    {
+        String reference = message.Param(0);
+        if(reference.length() < 2) return;
+        String id = reference.substring(1);
+        if(reference.charAt(0) == '+')
+        {
+            String type = message.Param(1);
+            String target = type.equals("chathistory") && message.ParamCount() > 2 ? message.Param(2) : null;
+            batches.add(new Batch(id, type, target, message.HasTags() ? FindBatch(message) : null));
+            return;
+        }
+        for(int i = batches.size() - 1; i >= 0; i--)
+        {
+            Batch batch = batches.get(i);
+            if(batch.id.equals(id))
+            {
+                batches.remove(i);
+                int lines = batch.root.lines.size();
+                if(batch.root == batch)
+                    Replay(batch);
+                if(batch.target != null) //A page of a backfill
+                    BackfillPage(serverConnection.targets.Intern(batch.target), lines);
+                return;
             }
         }
-        else
+    }
+
+    /**
+     * @return The open batch a message's batch tag refers to, null if it has no tag or the batch isn't open
+     */
+    private Batch FindBatch(IrcMessage message)
+    {
+        for(int i = batches.size() - 1; i >= 0; i--)
         {
-            switch (commandStart.toLowerCase()) {
-                case "ping":
-                    serverConnection.Send("PONG " + command.substring(command.indexOf(' ') + 1));
-                    break;
-                case "privmsg":
-                    chatWindow.ProcessChat(command, source);
-                    break;
-                case "join":
-                    serverConnection.ProcessPendingJoin(ServerConnection.ChannelJoinResult.SUCCESS, command.substring(command.indexOf(":") + 1));
-                    break;
-                case "part": //Ignore channel leave
-                    break;
-                case "squit":
-                    serverConnection.Disconnect();
-                    break;
-                default:
-                    PrintFormatted(command, chatWindow);
+            if(message.TagIs("batch", batches.get(i).id))
+                return batches.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Handles the lines held by a batch in server-time order, between BatchStarted and BatchEnded so the front end
+     * can show them in one pass. Lines without a time keep their place after the line before them
+     */
+    private void Replay(Batch batch)
+    {
+        ArrayList<String> lines = batch.lines;
+        if(lines.isEmpty()) return;
+        long[] times = new long[lines.size()];
+        long last = Long.MIN_VALUE;
+        boolean sorted = true;
+        for(int i = 0; i < times.length; i++)
+        {
+            message.Parse(lines.get(i));
+            long time = message.ServerTime();
+            times[i] = time == -1 ? last : time;
+            sorted &= times[i] >= last;
+            last = times[i];
+        }
+        Integer[] order = new Integer[times.length];
+        for(int i = 0; i < order.length; i++)
+            order[i] = i;
+        if(!sorted) //Stable, so lines with the same time keep the order they arrived in
+            Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+        serverConnection.listener.BatchStarted(batch.type);
+        replaying = true;
+        try {
+            for(int index : order)
+            {
+                if(message.Parse(lines.get(index)))
+                    dispatcher.Dispatch(message);
             }
+            FlushBlock();
         }
+        finally //A line that fails to handle must not leave this thread's later lines grouped and never shown
+        {
+            replaying = false;
+            serverConnection.listener.BatchEnded();
+            lines.clear();
+        }
+    }
+
+    /**
+     * Asks the server for the messages of a target after the last one seen, if it supports CHATHISTORY.
+     * Live messages for the target are held until the backfill is done
+     * @param target Key of the channel or query
+     * @param name Name to send in the request
+     */
+    private void StartBackfill(TargetRegistry.Target target, String name)
+    {
+        if(!serverConnection.caps.HasChatHistory()) return;
+        String request = serverConnection.history.Begin(target, name, HistoryPageSize());
+        if(request != null)
+            RequestPage(target, request);
+    }
+
+    /**
+     * Sends a CHATHISTORY request, and gives the backfill up if no page comes back in time, so held lines are never stuck
+     */
+    private void RequestPage(TargetRegistry.Target target, String request)
+    {
+        serverConnection.Send(request);
+        ConnectionManager.GetScheduler().schedule(() -> {
+            synchronized (this) //Runs on the timer thread, lines are handled under the same lock
+            {
+                if(serverConnection.history.Expired(target))
+                    Release(serverConnection.history.Finish(target));
+            }
+        }, ChatHistory.TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A page of a backfill has been handled. Asks for the next page, or releases the held live lines after the last one
+     * @param lines Number of lines in the page
+     */
+    private void BackfillPage(TargetRegistry.Target target, int lines)
+    {
+        String request = serverConnection.history.PageReceived(target, lines, HistoryPageSize());
+        if(request != null)
+            RequestPage(target, request);
+        else
+            Release(serverConnection.history.Finish(target));
     }
 
-    public void PrintFormatted(String command, ChatWindow chatWindow)
+    private int HistoryPageSize()
     {
-        String commandStart;
-        if(command.startsWith(":"))
-            command = command.substring(command.indexOf(' ') + 1);
+        int limit = serverConnection.isupport.GetChatHistoryLimit();
+        return limit > 0 ? Math.min(limit, ChatHistory.PAGE_SIZE) : ChatHistory.PAGE_SIZE;
+    }
 
-        if (command.contains(" "))
-            commandStart = command.substring(0, command.indexOf(' '));
+    /**
+     * Handles live lines that were held for a backfill, in the order they arrived
+     */
+    private void Release(ArrayList<String> held)
+    {
+        for(String line : held)
+        {
+            if(message.Parse(line))
+                dispatcher.Dispatch(message);
+        }
+    }
+
+    /**
+     * Prints a message to the server output. Numeric replies have the reply code and target nickname removed.
+     * @param message Parsed message to print
+     */
+    public void PrintFormatted(IrcMessage message)
+    {
+        FlushBlock(); //Keep server output in order if a line arrives in the middle of a block
+        if(message.Numeric() != -1) //If reply is number code, skip the code and the target nickname
+            serverConnection.listener.ServerMessage(message.ParamsFrom(1), "black");
         else
-            commandStart = command;
-        if(commandStart.chars().allMatch( Character::isDigit )) //If reply is number code
+            serverConnection.listener.ServerMessage(message.WithoutPrefix(), "black");
+    }
+
+    /**
+     * Process incoming chat messages into the respective channel or query
+     * @param message Parsed PRIVMSG sent by server
+     */
+    private void ProcessChat(IrcMessage message)
+    {
+        String nick = message.Nick(); //Get nickname from source
+        boolean own = message.NickIs(serverConnection.nickName); //Our own message played back from history
+        TargetRegistry.Target target = serverConnection.targets.Intern(message.GetLine(), message.ParamStart(0), message.ParamEnd(0)); //Get the destination (usually a channel) key straight from the line
+        if(!serverConnection.isupport.IsChannel(target.GetKey()) && !own) //If the destination is not a channel, eg, a private chat
+            target = serverConnection.targets.Intern(nick); //Set the destination to a personal nickname
+        ChatHistory history = serverConnection.history;
+        if(!replaying && history.IsBackfilling(target))
         {
-            command = command.substring(command.indexOf(' ', command.indexOf(' ') + 1) + 1);
-            if(command.startsWith(":"))
-                command = command.substring(1);
+            String line = message.GetLine();
+            if(history.Hold(target, line)) //Shown after the messages it follows
+                return;
+            Release(history.Finish(target)); //Backfill is taking too long, show what was held and carry on live
+            message.Parse(line); //Release reused the parser
         }
-        //command = command.substring(command.indexOf(":", 1) + 1);
-        chatWindow.WriteLine(command);
+        history.Seen(target, message.ServerTime(), message.GetLine());
+        serverConnection.listener.ChatMessage(target.GetKey(), nick, message.Param(1), own); //Key is shared by every line queued for the tab
+    }
+
+    /**
+     * Parses a 322 LIST reply once and passes the channel to the listener
+     * @param message Parsed reply: nickname, channel, user count, topic
+     */
+    private void ProcessListItem(IrcMessage message)
+    {
+        if(message.ParamCount() < 3) return; //Malformed reply
+        if(!listing) //Some servers skip the 321 start reply
+        {
+            listing = true;
+            serverConnection.listener.ChannelListStarted();
+        }
+        String line = message.GetLine();
+        int users = 0;
+        for(int i = message.ParamStart(2); i < message.ParamEnd(2); i++) //Parse the count in place, no substring or exception on bad input
+        {
+            char c = line.charAt(i);
+            if(c < '0' || c > '9') break;
+            users = users * 10 + (c - '0');
+        }
+        String topic = message.ParamCount() > 3 ? message.Param(3) : "";
+        serverConnection.listener.ChannelListed(message.Param(1), users, topic);
     }
 
     public void HandleClientCommand(String command, String sourceTab)
@@ -136,28 +472,50 @@ public class CommandHandler {
             {
                 case "join":
                     if(params.length > 0) {
-                        serverConnection.JoinChannel(params[0], new CompletionHandler<String, ServerConnection>() {
+                        serverConnection.outboundQueue.Hold(); //Each channel is its own request, held so the queue sends them as one command again
+                        for(String channel : params[0].split(",")) {
+                            serverConnection.JoinChannel(channel, new CompletionHandler<String, ServerConnection>() {
+                                @Override
+                                public void completed(String channelName, ServerConnection attachment) {
+                                    attachment.listener.ChannelJoined(channelName);
+                                }
+
+                                @Override
+                                public void failed(Throwable exc, ServerConnection attachment) {
+                                    if (exc instanceof CustomExceptions.IllegalChannelNameException)
+                                        attachment.listener.TargetMessage(sourceTab, "Failed to join channel! Illegal channel name!", "red");
+                                    else if (exc instanceof CustomExceptions.ChannelFullException)
+                                        attachment.listener.TargetMessage(sourceTab, "Failed to join channel! Channel is full!", "red");
+                                    else
+                                        attachment.listener.TargetMessage(sourceTab, "Failed to join channel! " + exc.getMessage(), "red");
+                                }
+                            });
+                        }
+                        serverConnection.outboundQueue.Release();
+                    }
+                    else
+                        serverConnection.listener.TargetMessage(sourceTab, "Invalid channel specified! Use '/join #channelname'", "red");
+                    break;
+                case "whois":
+                case "names":
+                case "mode":
+                    if(params.length > 0) {
+                        serverConnection.Request(start.toUpperCase() + " " + command, new CompletionHandler<String, ServerConnection>() { //Replies are printed as they arrive
                             @Override
-                            public void completed(String channelName, ServerConnection attachment) {
-                                ChatTab tab = attachment.chatWindow.CreateTab(channelName, false);
-                                serverConnection.chatWindow.tabbedPane.setSelectedComponent(tab.container);
-                            }
+                            public void completed(String reply, ServerConnection attachment) { }
 
                             @Override
                             public void failed(Throwable exc, ServerConnection attachment) {
-                                if (exc instanceof CustomExceptions.IllegalChannelNameException)
-                                    serverConnection.chatWindow.WriteLineToTab("Failed to join channel! Illegal channel name!", "red", sourceTab);
-                                else if (exc instanceof CustomExceptions.ChannelFullException)
-                                    serverConnection.chatWindow.WriteLineToTab("Failed to join channel! Channel is full!", "red", sourceTab);
+                                attachment.listener.TargetMessage(sourceTab, exc.getMessage(), "red");
                             }
                         });
                     }
                     else
-                        serverConnection.chatWindow.WriteLineToTab("Invalid channel specified! Use '/join #channelname'", "red", sourceTab);
+                        serverConnection.listener.TargetMessage(sourceTab, "Missing target! Use '/" + start.toLowerCase() + " <target>'", "red");
                     break;
             }
         }
         else
-            serverConnection.chatWindow.SendChat(command, sourceTab);
+            serverConnection.SendChat(command, sourceTab);
     }
 }
@@ -0,0 +1,107 @@
+/* Connection Listener interface for receiving events from a server connection without depending on any GUI code.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.util.List;
+
+/**
+ * Events raised by a ServerConnection and its CommandHandler. Every method defaults to doing nothing,
+ * so an anonymous instance with no overrides is a no-op sink. Events are raised on network threads.
+ */
+public interface ConnectionListener {
+    /**
+     * Every raw line received from the server, before it is handled
+     * @param line Line without CR/LF
+     */
+    default void RawLine(String line) { }
+
+    /**
+     * Informational or error line for the server as a whole
+     * @param message Text of the line
+     * @param color Colour name eg "red"
+     */
+    default void ServerMessage(String message, String color) { }
+
+    /**
+     * Block of informational lines for the server as a whole, from a multi reply command such as MOTD or WHO.
+     * Defaults to one ServerMessage per line
+     * @param lines Text of each line, in order
+     * @param color Colour name eg "black"
+     */
+    default void ServerBlock(List<String> lines, String color)
+    {
+        for(String line : lines)
+            ServerMessage(line, color);
+    }
+
+    /**
+     * Informational or error line for a specific channel or query
+     * @param target Channel or nickname the line belongs to
+     * @param message Text of the line
+     * @param color Colour name eg "red"
+     */
+    default void TargetMessage(String target, String message, String color) { }
+
+    /**
+     * Chat message sent to or received from a channel or user
+     * @param target Channel, or the other user's nickname for private messages
+     * @param nick Nickname of the sender
+     * @param text Message text
+     * @param own If the message was sent by this client
+     */
+    default void ChatMessage(String target, String nick, String text, boolean own) { }
+
+    /**
+     * An IRCv3 batch is about to be handled, eg a netsplit or history playback.
+     * Events until BatchEnded belong to it and are raised on the same thread, so a front end can show them in one pass
+     * @param type Batch type eg "netsplit"
+     */
+    default void BatchStarted(String type) { }
+
+    /**
+     * The batch from BatchStarted has been handled
+     */
+    default void BatchEnded() { }
+
+    /**
+     * The server told us its network name eg "EFNet"
+     */
+    default void NetworkNameChanged(String networkName) { }
+
+    /**
+     * The server's case mapping changed. Names that now fold to the same name share one key in the connection's
+     * target registry, so anything keyed by target should be looked up again
+     */
+    default void CaseMappingChanged() { }
+
+    /**
+     * A join requested by the user completed
+     * @param channel Name of the joined channel
+     */
+    default void ChannelJoined(String channel) { }
+
+    /**
+     * A channel LIST reply started, channels follow
+     */
+    default void ChannelListStarted() { }
+
+    /**
+     * One channel of a LIST reply
+     * @param channel Channel name
+     * @param users Number of visible users
+     * @param topic Channel topic, may be empty
+     */
+    default void ChannelListed(String channel, int users, String topic) { }
+
+    /**
+     * A channel LIST reply finished
+     */
+    default void ChannelListEnded() { }
+
+    /**
+     * The server rejected our nickname because it is in use
+     */
+    default void NicknameInUse() { }
+}
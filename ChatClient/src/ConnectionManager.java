@@ -5,11 +5,318 @@
  */
 
 import javax.lang.model.type.NullType;
+import java.io.IOException;
+import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.CompletionHandler;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ConnectionManager {
+    public enum Engine //How server sockets are driven
+    {
+        ASYNC, //Completion handlers on the shared channel group
+        BLOCKING //Blocking reads and writes on a reader and writer thread per connection, virtual threads when the JVM has them
+    }
+
     public static ArrayList<ServerConnection> ServerConnections = new ArrayList<>(); //Where each server connection is stored.z
+    public static int IoThreads = Math.max(2, Runtime.getRuntime().availableProcessors()); //Threads shared by all connections for socket I/O. Set before the first connection is opened
+    public static Engine ConnectionEngine = "blocking".equalsIgnoreCase(System.getProperty("chatclient.engine")) ? Engine.BLOCKING : Engine.ASYNC; //Engine used for new connections, -Dchatclient.engine=blocking to pick the blocking engine
+    public static int ReconnectBaseDelay = 1000; //Milliseconds before the first reconnect attempt, doubled after each failed attempt
+    public static int ReconnectMaxDelay = 300000; //Longest wait between reconnect attempts in milliseconds
+
+    /**
+     * A lost connection being brought back. Kept until its channels have been joined again
+     */
+    private static class Reconnect
+    {
+        final ServerConnection connection;
+        final LinkedHashSet<String> channels = new LinkedHashSet<>(); //Channels to join again
+        int attempts = 0; //Attempts made since the connection was lost
+        int generation = 0; //Bumped when the connection is lost again, callbacks of older attempts are ignored
+        boolean busy = false; //If an attempt is scheduled or connecting, a new loss then needs no attempt of its own
+        long lostAt; //System.nanoTime when the connection was lost
+        ScheduledFuture<?> next; //Scheduled attempt, cancelled on shutdown
+
+        Reconnect(ServerConnection connection)
+        {
+            this.connection = connection;
+        }
+    }
+
+    private static AsynchronousChannelGroup channelGroup; //Channel group every server socket is opened in, created on first use
+    private static ScheduledExecutorService scheduler; //Timer thread shared by all connections, used for flood control pacing
+    private static ThreadFactory connectionThreads; //Reader and writer threads for the blocking engine, created on first use
+    private static final HashMap<ServerConnection, Reconnect> reconnects = new HashMap<>(); //Lost connections being brought back, guarded by the class lock
+
+    /**
+     * Gets the channel group shared by all server connections, creating it with IoThreads named threads on first use
+     * @return Shared channel group
+     * @throws IOException If the group could not be created
+     */
+    public static synchronized AsynchronousChannelGroup GetChannelGroup() throws IOException
+    {
+        if(channelGroup == null || channelGroup.isShutdown())
+            channelGroup = AsynchronousChannelGroup.withFixedThreadPool(IoThreads, NamedThreads("irc-io"));
+        return channelGroup;
+    }
+
+    /**
+     * Opens a transport for a new server connection using the selected engine
+     * @return Unconnected transport
+     * @throws IOException If the socket could not be opened
+     */
+    public static Transport OpenTransport() throws IOException
+    {
+        if(ConnectionEngine == Engine.BLOCKING)
+            return new BlockingTransport(GetConnectionThreads());
+        return new AsyncTransport(GetChannelGroup());
+    }
+
+    /**
+     * Gets the thread factory for the blocking engine. Uses virtual threads when the JVM supports them (Java 21+),
+     * otherwise falls back to platform daemon threads
+     * @return Thread factory for connection reader and writer threads
+     */
+    public static synchronized ThreadFactory GetConnectionThreads()
+    {
+        if(connectionThreads == null)
+        {
+            try {
+                //Looked up reflectively so the client still builds and runs on JVMs without virtual threads
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "irc-conn-", 1L);
+                connectionThreads = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            }
+            catch (ReflectiveOperationException | RuntimeException ex) //No virtual threads, or they are a disabled preview feature
+            {
+                connectionThreads = NamedThreads("irc-conn");
+            }
+        }
+        return connectionThreads;
+    }
+
+    /**
+     * Gets the timer shared by all server connections, creating it on first use
+     * @return Shared single thread scheduler
+     */
+    public static synchronized ScheduledExecutorService GetScheduler()
+    {
+        if(scheduler == null || scheduler.isShutdown())
+            scheduler = Executors.newSingleThreadScheduledExecutor(NamedThreads("irc-timer"));
+        return scheduler;
+    }
+
+    /**
+     * Disconnects every server and stops the shared I/O, timer and log threads, waiting briefly for them to finish
+     */
+    public static void Shutdown()
+    {
+        ScheduledExecutorService timer;
+        AsynchronousChannelGroup group;
+        synchronized (ConnectionManager.class) //Timer tasks such as reconnect attempts take this lock, so it is released before waiting on them
+        {
+            for(Reconnect reconnect : reconnects.values())
+            {
+                if(reconnect.next != null)
+                    reconnect.next.cancel(false);
+            }
+            reconnects.clear(); //Attempts already running see they are no longer wanted
+            for(ServerConnection connection : ServerConnections)
+            {
+                if(connection.Connected())
+                    connection.Disconnect();
+            }
+            timer = scheduler;
+            group = channelGroup;
+            if(timer != null)
+                timer.shutdown(); //Under the lock so GetScheduler makes a new timer rather than handing out this one
+            if(group != null)
+                group.shutdown(); //Stops once every socket in the group is closed
+        }
+        try {
+            if(timer != null && !timer.awaitTermination(1, TimeUnit.SECONDS))
+                timer.shutdownNow();
+            if(group != null && !group.awaitTermination(2, TimeUnit.SECONDS))
+                group.shutdownNow(); //Force close anything still open
+        }
+        catch (InterruptedException | IOException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        ChatLog.Close(); //Write any lines still queued
+    }
+
+    /**
+     * Creates a thread factory for daemon threads named prefix-1, prefix-2 ...
+     */
+    private static ThreadFactory NamedThreads(String prefix)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true); //Don't keep the program open once the windows are closed
+            return thread;
+        };
+    }
+
+    /**
+     * Called when a connection is lost without the user asking, eg a read or write fails. Schedules a reconnect with
+     * jittered exponential backoff, then registers again and joins the channels that were open in one burst,
+     * which the outbound queue sends as a few multi channel JOINs. Query tabs are kept and backfilled from CHATHISTORY
+     * @param connection Connection that was lost, must already be disconnected. Never called for a deliberate Disconnect
+     */
+    public static void ConnectionLost(ServerConnection connection)
+    {
+        Reconnect reconnect;
+        synchronized (ConnectionManager.class)
+        {
+            if(!ServerConnections.contains(connection)) return; //Not one of ours, or shutting down
+            reconnect = reconnects.get(connection);
+            if(reconnect == null)
+            {
+                reconnect = new Reconnect(connection);
+                reconnect.lostAt = System.nanoTime();
+                reconnects.put(connection, reconnect);
+            }
+            reconnect.channels.addAll(connection.roster.GetChannels()); //Cleared when the connection opens again
+            if(reconnect.busy) return; //An attempt is already on its way
+            reconnect.busy = true;
+            reconnect.generation++;
+        }
+        ScheduleReconnect(reconnect);
+    }
+
+    /**
+     * @return If a connection was lost and is being brought back, its front end shouldn't act on login errors
+     */
+    public static synchronized boolean IsReconnecting(ServerConnection connection)
+    {
+        return reconnects.containsKey(connection);
+    }
+
+    /**
+     * Schedules the next reconnect attempt. The delay doubles with each attempt up to ReconnectMaxDelay,
+     * and a random half of it is taken off so many clients dropped together don't all come back at once
+     */
+    private static synchronized void ScheduleReconnect(Reconnect reconnect)
+    {
+        if(reconnects.get(reconnect.connection) != reconnect) return; //Shut down
+        long delay = Math.min(ReconnectMaxDelay, (long)ReconnectBaseDelay << Math.min(reconnect.attempts, 20));
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        reconnect.attempts++;
+        int generation = reconnect.generation;
+        reconnect.connection.listener.ServerMessage(String.format("Connection lost, reconnecting in %.1f seconds (attempt %d)", delay / 1000.0, reconnect.attempts), "red");
+        reconnect.next = GetScheduler().schedule(() -> Reattempt(reconnect, generation), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the connection again and registers with the same names. Schedules another attempt if either fails
+     */
+    private static void Reattempt(Reconnect reconnect, int generation)
+    {
+        if(!IsCurrent(reconnect, generation)) return;
+        long started = System.nanoTime();
+        reconnect.connection.Connect(new CompletionHandler<Void, ServerConnection>() {
+            @Override
+            public void completed(Void result, ServerConnection attachment) {
+                attachment.Relogin(new CompletionHandler<ServerConnection.LoginResult, ServerConnection>() {
+                    @Override
+                    public void completed(ServerConnection.LoginResult result, ServerConnection attachment) {
+                        synchronized (ConnectionManager.class)
+                        {
+                            if(reconnects.get(attachment) != reconnect || reconnect.generation != generation) return;
+                            reconnect.busy = false; //Losing the connection from here on needs a new attempt
+                        }
+                        Restore(reconnect, generation, started);
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, ServerConnection attachment) { //Eg our old session still holds the nickname until the server times it out
+                        if(!IsCurrent(reconnect, generation)) return;
+                        attachment.listener.ServerMessage("Reconnect failed, could not log in: " + exc.getMessage(), "red");
+                        attachment.Disconnect();
+                        ScheduleReconnect(reconnect);
+                    }
+                });
+            }
+
+            @Override
+            public void failed(Throwable exc, ServerConnection attachment) {
+                if(!IsCurrent(reconnect, generation)) return;
+                attachment.listener.ServerMessage("Reconnect failed: " + exc, "red");
+                ScheduleReconnect(reconnect);
+            }
+        });
+    }
+
+    /**
+     * Joins the channels that were open before the connection was lost, all at once, and reports how long restoring took
+     * @param started System.nanoTime when the successful attempt started connecting
+     */
+    private static void Restore(Reconnect reconnect, int generation, long started)
+    {
+        ServerConnection connection = reconnect.connection;
+        ArrayList<String> channels;
+        synchronized (ConnectionManager.class)
+        {
+            channels = new ArrayList<>(reconnect.channels);
+        }
+        AtomicInteger remaining = new AtomicInteger(channels.size() + 1); //One extra so the report can't run before every join is sent
+        AtomicInteger failed = new AtomicInteger();
+        Runnable done = () -> {
+            if(remaining.decrementAndGet() != 0) return;
+            synchronized (ConnectionManager.class)
+            {
+                if(reconnects.get(connection) != reconnect || reconnect.generation != generation) return; //Lost again part way through
+                reconnects.remove(connection);
+            }
+            long now = System.nanoTime();
+            connection.listener.ServerMessage(String.format("Session restored in %d ms after %d attempts, %d ms offline: %d of %d channels joined again",
+                    TimeUnit.NANOSECONDS.toMillis(now - started), reconnect.attempts, TimeUnit.NANOSECONDS.toMillis(now - reconnect.lostAt),
+                    channels.size() - failed.get(), channels.size()), failed.get() == 0 ? "green" : "red");
+        };
+        connection.outboundQueue.Hold(); //Queue every join before writing, so they leave as a few multi channel JOINs
+        try {
+            for(String channel : channels)
+            {
+                connection.JoinChannel(channel, new CompletionHandler<String, ServerConnection>() { //Tabs were kept, so nothing to open
+                    @Override
+                    public void completed(String channelName, ServerConnection attachment) {
+                        done.run();
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, ServerConnection attachment) {
+                        failed.incrementAndGet();
+                        attachment.listener.TargetMessage(channel, "Failed to join channel again! " + exc.getMessage(), "red");
+                        done.run();
+                    }
+                });
+            }
+        }
+        finally
+        {
+            connection.outboundQueue.Release();
+        }
+        done.run();
+    }
+
+    /**
+     * @return If an attempt's callbacks should still act, the connection hasn't been shut down or lost again since
+     */
+    private static synchronized boolean IsCurrent(Reconnect reconnect, int generation)
+    {
+        return reconnects.get(reconnect.connection) == reconnect && reconnect.generation == generation;
+    }
 
     public static void ConnectWithNickname(String server)
     {
@@ -28,26 +335,46 @@ public class ConnectionManager {
 
     public static void ConnectServer(String host, String nick, String username, String realname) //Connect to a server. Name format is host:port
     {
-        ServerConnection conn = new ServerConnection(host);
-        ServerConnections.add(conn); //Create new server connection instance and add it to the list of servers.
+        ConnectServer(new ServerConnection(host), nick, username, realname); //Connection with a chat window
+    }
+
+    /**
+     * Connect to a server without any GUI, sending all output and events to a listener
+     * @param host Server to connect to, format is host:port
+     * @param listener Listener for output and events, eg a ConsoleListener
+     * @return The new connection
+     */
+    public static ServerConnection ConnectServer(String host, String nick, String username, String realname, ConnectionListener listener)
+    {
+        ServerConnection conn = new ServerConnection(host, listener);
+        ConnectServer(conn, nick, username, realname);
+        return conn;
+    }
+
+    private static void ConnectServer(ServerConnection conn, String nick, String username, String realname)
+    {
+        synchronized (ConnectionManager.class)
+        {
+            ServerConnections.add(conn); //Add the server connection to the list of servers.
+        }
         conn.Connect(new CompletionHandler<Void, ServerConnection>() { //Connect to the server and specify an async callback for completion and failure
             @Override
             public void completed(Void result, ServerConnection attachment) { //Connection completed successfully
-                attachment.chatWindow.WriteLine("Server connected: " + attachment.Name, "green");
+                attachment.listener.ServerMessage("Server connected: " + attachment.Name, "green");
                 CompletionHandler<ServerConnection.LoginResult, ServerConnection> loginCallback = new CompletionHandler<ServerConnection.LoginResult, ServerConnection>() { //Async callback for server login
                     @Override
                     public void completed(ServerConnection.LoginResult result, ServerConnection attachment) { //Login completed successfully
-                        attachment.chatWindow.WriteLine("Logged in!", "green");
+                        attachment.listener.ServerMessage("Logged in!", "green");
                     }
 
                     @Override
                     public void failed(Throwable exc, ServerConnection attachment) { //Login failed
                         if(exc instanceof CustomExceptions.NameTakenException) //Name taken
-                            attachment.chatWindow.WriteLine("Login failed, name taken: " + exc, "red");
+                            attachment.listener.ServerMessage("Login failed, name taken: " + exc, "red");
                         else if(exc instanceof  CustomExceptions.BadNameException) //Illegal name
-                            attachment.chatWindow.WriteLine("Login failed, erroneous name: " + exc, "red");
+                            attachment.listener.ServerMessage("Login failed, erroneous name: " + exc, "red");
                         else //Generic failure
-                            attachment.chatWindow.WriteLine("Login failed: " + exc, "red");
+                            attachment.listener.ServerMessage("Login failed: " + exc, "red");
                     }
                 };
                 attachment.Login(nick, username, realname, false, loginCallback);
@@ -55,7 +382,7 @@ public class ConnectionManager {
 
             @Override
             public void failed(Throwable exc, ServerConnection attachment) { //Connection failed
-                attachment.chatWindow.WriteLine ("Failed to connect to server: " + attachment.Name + " - " + exc, "red");//Print failed connection and the server that failed
+                attachment.listener.ServerMessage("Failed to connect to server: " + attachment.Name + " - " + exc, "red");//Print failed connection and the server that failed
             }
         });
     }
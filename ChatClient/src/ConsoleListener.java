@@ -0,0 +1,81 @@
+/* Console Listener class to log server connection events to standard output, for running connections without a display.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.io.PrintStream;
+
+public class ConsoleListener implements ConnectionListener {
+    private final String name; //Connection name printed before each line
+    private final PrintStream out; //Where lines are printed
+    private int listed; //Channels received in the current LIST reply
+
+    /**
+     * @param name Connection name printed before each line eg host:port
+     */
+    public ConsoleListener(String name)
+    {
+        this(name, System.out);
+    }
+
+    public ConsoleListener(String name, PrintStream out)
+    {
+        this.name = name;
+        this.out = out;
+    }
+
+    @Override
+    public void ServerMessage(String message, String color)
+    {
+        out.println("[" + name + "] " + message);
+    }
+
+    @Override
+    public void TargetMessage(String target, String message, String color)
+    {
+        out.println("[" + name + "] " + target + " " + message);
+    }
+
+    @Override
+    public void ChatMessage(String target, String nick, String text, boolean own)
+    {
+        out.println("[" + name + "] " + target + " <" + nick + "> " + text);
+    }
+
+    @Override
+    public void NetworkNameChanged(String networkName)
+    {
+        out.println("[" + name + "] Network: " + networkName);
+    }
+
+    @Override
+    public void ChannelJoined(String channel)
+    {
+        out.println("[" + name + "] Joined " + channel);
+    }
+
+    @Override
+    public void ChannelListStarted()
+    {
+        listed = 0;
+    }
+
+    @Override
+    public void ChannelListed(String channel, int users, String topic)
+    {
+        listed++;
+    }
+
+    @Override
+    public void ChannelListEnded()
+    {
+        out.println("[" + name + "] " + listed + " channels listed");
+    }
+
+    @Override
+    public void NicknameInUse()
+    {
+        out.println("[" + name + "] Nickname is already in use");
+    }
+}
@@ -17,12 +17,6 @@ public class CustomExceptions {
         }
     }
 
-    public static class ChannelJoinPendingException extends Exception { //Exception for when a join request is already pending when a new one is created
-        public ChannelJoinPendingException(String message) {
-            super(message);
-        }
-    }
-
     public static class IllegalChannelNameException extends Exception { //Exception for a channel name that doesn't fit the IRC server's channel naming scheme
         public IllegalChannelNameException(String message) {
             super(message);
@@ -34,4 +28,22 @@ public class CustomExceptions {
             super(message);
         }
     }
+
+    public static class ChannelLimitException extends Exception { //Exception for when joining would go over the server's limit of joined channels
+        public ChannelLimitException(String message) {
+            super(message);
+        }
+    }
+
+    public static class RequestFailedException extends Exception { //Exception for a request the server answered with an error
+        public RequestFailedException(String message) {
+            super(message);
+        }
+    }
+
+    public static class RequestTimeoutException extends Exception { //Exception for a request the server didn't answer in time
+        public RequestTimeoutException(String message) {
+            super(message);
+        }
+    }
 }
@@ -0,0 +1,89 @@
+/* Flood Control class implementing a token bucket to pace lines sent to an IRC server.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+public class FloodControl {
+    public static final int DEFAULT_BURST = 5; //Lines that can be sent back to back, RFC 1459 allows a 10 second lead at 2 seconds per line
+    public static final int DEFAULT_INTERVAL = 2000; //Milliseconds per line once the burst is used up
+
+    private final int burst; //Max tokens the bucket holds
+    private final long intervalNanos; //Time to refill one token
+    private long tokens; //Tokens available, may go negative when lines are forced through
+    private long lastRefill; //System.nanoTime of the last refill
+
+    public FloodControl()
+    {
+        this(DEFAULT_BURST, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param burst Number of lines that can be sent at once before pacing starts
+     * @param interval Milliseconds per line after the burst is used up
+     */
+    public FloodControl(int burst, int interval)
+    {
+        if(burst < 1 || interval < 0)
+            throw new IllegalArgumentException("Burst must be at least 1 and interval can't be negative");
+        this.burst = burst;
+        this.intervalNanos = interval * 1000000L;
+        tokens = burst;
+        lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a token if one is available
+     * @return True if a line can be sent now
+     */
+    public synchronized boolean TryTake()
+    {
+        Refill();
+        if(tokens <= 0) return false;
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Takes a token even if none are available, so lines that must go out still count against the budget
+     */
+    public synchronized void Take()
+    {
+        Refill();
+        tokens--;
+    }
+
+    /**
+     * @return Nanoseconds until a token will be available, 0 if one is available now
+     */
+    public synchronized long NanosUntilAvailable()
+    {
+        Refill();
+        if(tokens > 0) return 0;
+        return (1 - tokens) * intervalNanos - (System.nanoTime() - lastRefill);
+    }
+
+    /**
+     * Fills the bucket, eg for a new connection which the server counts from zero
+     */
+    public synchronized void Reset()
+    {
+        tokens = burst;
+        lastRefill = System.nanoTime();
+    }
+
+    private void Refill()
+    {
+        long now = System.nanoTime();
+        if(intervalNanos == 0) //Pacing disabled
+        {
+            tokens = burst;
+            lastRefill = now;
+            return;
+        }
+        long earned = (now - lastRefill) / intervalNanos;
+        if(earned <= 0) return;
+        tokens = Math.min(burst, tokens + earned);
+        lastRefill = tokens == burst ? now : lastRefill + earned * intervalNanos; //Keep partial progress towards the next token
+    }
+}
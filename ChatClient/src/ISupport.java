@@ -0,0 +1,390 @@
+/* ISupport class to hold the features and limits a server advertises in its 005 (RPL_ISUPPORT) replies.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.util.HashMap;
+
+/**
+ * One per connection. Every value starts at the RFC 1459 default and is replaced as 005 tokens arrive,
+ * a "-TOKEN" puts it back to the default. Tokens are parsed from the connection's read thread and read from any thread.
+ */
+public class ISupport {
+    public enum CaseMapping //How the server folds nickname and channel case
+    {
+        ASCII, //Only A-Z and a-z
+        RFC1459, //Also []\~ are the upper case of {}|^
+        STRICT_RFC1459 //Also []\ are the upper case of {}|
+    }
+
+    public static final int DEFAULT_LINE_LENGTH = 512; //Max bytes per line, including CR/LF
+    public static final int DEFAULT_NICK_LENGTH = 9;
+    public static final String DEFAULT_CHANNEL_TYPES = "#&";
+    public static final String DEFAULT_PREFIX_MODES = "ov";
+    public static final String DEFAULT_PREFIX_SYMBOLS = "@+";
+    public static final int CHANGED_NETWORK = 1; //NETWORK changed
+    public static final int CHANGED_PREFIX = 2; //PREFIX changed
+    public static final int CHANGED_CHANNEL_MODES = 4; //CHANMODES changed
+    public static final int CHANGED_CASE_MAPPING = 8; //CASEMAPPING changed
+
+    private volatile CaseMapping caseMapping = CaseMapping.RFC1459;
+    private volatile String channelTypes = DEFAULT_CHANNEL_TYPES;
+    private volatile String prefixModes = DEFAULT_PREFIX_MODES; //Member prefix modes, highest first
+    private volatile String prefixSymbols = DEFAULT_PREFIX_SYMBOLS; //Symbol for each prefix mode
+    private volatile String[] channelModes = { "beI", "k", "l", "imnpst" }; //CHANMODES groups A to D: lists, always take a parameter, take a parameter when set, never take one
+    private volatile HashMap<String, Integer> targetMax; //Max targets by upper case command from TARGMAX, null if not advertised
+    private volatile int maxTargets = 1; //Max targets of PRIVMSG and NOTICE from MAXTARGETS, used when TARGMAX isn't advertised
+    private volatile int lineLength = DEFAULT_LINE_LENGTH;
+    private volatile int nickLength = DEFAULT_NICK_LENGTH;
+    private volatile HashMap<Character, Integer> channelLimits = new HashMap<>(); //Max channels joined by channel type, from CHANLIMIT
+    private volatile String listExtensions = ""; //ELIST search extensions eg "CMNTU"
+    private volatile String network; //Network name eg "EFNet", null if not advertised
+    private volatile int chatHistoryLimit = 0; //Max messages per CHATHISTORY request, 0 if the server sets no limit
+
+    /**
+     * Applies the tokens of one 005 reply
+     * @param message Parsed 005 reply: nickname, tokens..., "are supported by this server"
+     * @return Which tokens changed, as a mask of the CHANGED_ values
+     */
+    public synchronized int Parse(IrcMessage message)
+    {
+        int changed = 0;
+        for(int i = 1; i < message.ParamCount() - 1; i++) //Skip the target nickname and the trailing text
+        {
+            String token = message.Param(i);
+            if(token.isEmpty()) continue;
+            boolean negated = token.charAt(0) == '-';
+            int equals = token.indexOf('=');
+            String name = token.substring(negated ? 1 : 0, equals == -1 ? token.length() : equals);
+            String value = negated || equals == -1 ? null : Unescape(token.substring(equals + 1));
+            changed |= Apply(name, value);
+        }
+        return changed;
+    }
+
+    /**
+     * Sets one token, or puts it back to its default
+     * @param name Token name eg "PREFIX"
+     * @param value Unescaped value, null if negated or the token has no value
+     * @return CHANGED_ flag for the token, 0 for tokens nobody is told about
+     */
+    private int Apply(String name, String value)
+    {
+        switch (name)
+        {
+            case "CASEMAPPING":
+                if("ascii".equalsIgnoreCase(value))
+                    caseMapping = CaseMapping.ASCII;
+                else if("strict-rfc1459".equalsIgnoreCase(value))
+                    caseMapping = CaseMapping.STRICT_RFC1459;
+                else //rfc1459 or one we don't know, rfc1459 folds the most
+                    caseMapping = CaseMapping.RFC1459;
+                return CHANGED_CASE_MAPPING;
+            case "CHANTYPES":
+                channelTypes = value == null ? DEFAULT_CHANNEL_TYPES : value; //An empty value means no channels
+                return 0;
+            case "PREFIX": //eg (qaohv)~&@%+
+                int close = value == null ? -1 : value.indexOf(')');
+                if(value != null && value.startsWith("(") && close != -1 && close - 1 == value.length() - close - 1)
+                {
+                    prefixModes = value.substring(1, close);
+                    prefixSymbols = value.substring(close + 1);
+                }
+                else if(value != null && value.isEmpty()) //No prefixes at all
+                    prefixModes = prefixSymbols = "";
+                else
+                {
+                    prefixModes = DEFAULT_PREFIX_MODES;
+                    prefixSymbols = DEFAULT_PREFIX_SYMBOLS;
+                }
+                return CHANGED_PREFIX;
+            case "CHANMODES": //eg beI,k,l,imnpst
+                String[] groups = { "beI", "k", "l", "imnpst" };
+                if(value != null)
+                {
+                    String[] parts = value.split(",", -1);
+                    for(int i = 0; i < groups.length; i++)
+                        groups[i] = i < parts.length ? parts[i] : "";
+                }
+                channelModes = groups;
+                return CHANGED_CHANNEL_MODES;
+            case "TARGMAX": //eg PRIVMSG:4,NOTICE:4,JOIN:,KICK:1
+                if(value == null)
+                {
+                    targetMax = null;
+                    return 0;
+                }
+                HashMap<String, Integer> limits = new HashMap<>();
+                for(String entry : value.split(","))
+                {
+                    int colon = entry.indexOf(':');
+                    if(colon <= 0) continue;
+                    int limit = ParseInt(entry.substring(colon + 1), Integer.MAX_VALUE); //No number means no limit
+                    limits.put(entry.substring(0, colon).toUpperCase(), limit);
+                }
+                targetMax = limits;
+                return 0;
+            case "MAXTARGETS":
+                maxTargets = value == null ? 1 : ParseInt(value, Integer.MAX_VALUE);
+                return 0;
+            case "LINELEN":
+                lineLength = value == null ? DEFAULT_LINE_LENGTH : Math.max(DEFAULT_LINE_LENGTH, ParseInt(value, DEFAULT_LINE_LENGTH)); //Never below what every server accepts
+                return 0;
+            case "NICKLEN":
+            case "MAXNICKLEN":
+                nickLength = value == null ? DEFAULT_NICK_LENGTH : ParseInt(value, DEFAULT_NICK_LENGTH);
+                return 0;
+            case "CHANLIMIT": //eg #&:100,+:
+            case "MAXCHANNELS": //Older form, applies to every channel type
+                HashMap<Character, Integer> channels = new HashMap<>();
+                if(value != null && name.equals("MAXCHANNELS"))
+                {
+                    for(char type : channelTypes.toCharArray())
+                        channels.put(type, ParseInt(value, Integer.MAX_VALUE));
+                }
+                else if(value != null)
+                {
+                    for(String entry : value.split(","))
+                    {
+                        int colon = entry.indexOf(':');
+                        if(colon == -1) continue;
+                        int limit = ParseInt(entry.substring(colon + 1), Integer.MAX_VALUE);
+                        for(int i = 0; i < colon; i++)
+                            channels.put(entry.charAt(i), limit);
+                    }
+                }
+                channelLimits = channels;
+                return 0;
+            case "ELIST":
+                listExtensions = value == null ? "" : value.toUpperCase();
+                return 0;
+            case "NETWORK":
+                network = value;
+                return CHANGED_NETWORK;
+            case "CHATHISTORY":
+            case "draft/CHATHISTORY":
+                chatHistoryLimit = value == null ? 0 : ParseInt(value, 0);
+                return 0;
+            default: //Tokens the client doesn't use
+                return 0;
+        }
+    }
+
+    /**
+     * Puts every value back to its default, for a new connection
+     */
+    public synchronized void Reset()
+    {
+        for(String name : new String[] { "CASEMAPPING", "CHANTYPES", "PREFIX", "CHANMODES", "TARGMAX", "MAXTARGETS", "LINELEN", "NICKLEN", "CHANLIMIT", "ELIST", "NETWORK" })
+            Apply(name, null);
+        chatHistoryLimit = 0;
+    }
+
+    /**
+     * Folds a nickname or channel name to lower case the way the server compares them
+     * @param name Name to fold
+     * @return Folded name, the same string if it is already lower case
+     */
+    public String Fold(String name)
+    {
+        CaseMapping mapping = caseMapping;
+        for(int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            if(Fold(mapping, c) != c) //Only copy names that change
+            {
+                char[] folded = name.toCharArray();
+                for(int j = i; j < folded.length; j++)
+                    folded[j] = Fold(mapping, folded[j]);
+                return new String(folded);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Compares two names the way the server does
+     */
+    public boolean Equal(String a, String b)
+    {
+        if(a == null || b == null) return false;
+        return Equal(a, 0, a.length(), b, 0, b.length());
+    }
+
+    /**
+     * Compares two names in place the way the server does, eg targets within command lines
+     * @param a Text holding the first name, from aStart to aEnd
+     * @param b Text holding the second name, from bStart to bEnd
+     */
+    public boolean Equal(CharSequence a, int aStart, int aEnd, CharSequence b, int bStart, int bEnd)
+    {
+        if(aEnd - aStart != bEnd - bStart) return false;
+        CaseMapping mapping = caseMapping;
+        for(int i = aStart, j = bStart; i < aEnd; i++, j++)
+        {
+            if(Fold(mapping, a.charAt(i)) != Fold(mapping, b.charAt(j)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Folds one character with a case mapping
+     */
+    static char Fold(CaseMapping mapping, char c)
+    {
+        if(c >= 'A' && c <= 'Z')
+            return (char) (c + ('a' - 'A'));
+        if(mapping == CaseMapping.ASCII || c < '[' || c > '~')
+            return c;
+        switch (c)
+        {
+            case '[': return '{';
+            case ']': return '}';
+            case '\\': return '|';
+            case '~': return mapping == CaseMapping.RFC1459 ? '^' : c;
+            default: return c;
+        }
+    }
+
+    /**
+     * @return If a target is a channel, from its first character
+     */
+    public boolean IsChannel(String target)
+    {
+        return !target.isEmpty() && channelTypes.indexOf(target.charAt(0)) != -1;
+    }
+
+    /**
+     * Gets the max number of targets one command may have
+     * @param command Command eg "PRIVMSG" or "JOIN"
+     * @return Max targets, Integer.MAX_VALUE if unlimited
+     */
+    public int GetTargetLimit(String command)
+    {
+        HashMap<String, Integer> limits = targetMax;
+        if(limits != null)
+            return limits.getOrDefault(command.toUpperCase(), 1); //Commands not listed take one target
+        if(command.equalsIgnoreCase("PRIVMSG") || command.equalsIgnoreCase("NOTICE"))
+            return maxTargets;
+        if(command.equalsIgnoreCase("JOIN") || command.equalsIgnoreCase("PART"))
+            return Integer.MAX_VALUE; //Channel lists are part of RFC 1459, only the line length limits them
+        return 1;
+    }
+
+    /**
+     * @return Max channels of a type we may join, Integer.MAX_VALUE if unlimited
+     */
+    public int GetChannelLimit(char channelType)
+    {
+        return channelLimits.getOrDefault(channelType, Integer.MAX_VALUE);
+    }
+
+    public CaseMapping GetCaseMapping()
+    {
+        return caseMapping;
+    }
+
+    public String GetChannelTypes()
+    {
+        return channelTypes;
+    }
+
+    public String GetPrefixModes()
+    {
+        return prefixModes;
+    }
+
+    public String GetPrefixSymbols()
+    {
+        return prefixSymbols;
+    }
+
+    /**
+     * @param group 0 to 3 for CHANMODES groups A to D
+     * @return Mode letters in the group
+     */
+    public String GetChannelModes(int group)
+    {
+        return channelModes[group];
+    }
+
+    /**
+     * @return Max bytes per line, including CR/LF
+     */
+    public int GetLineLength()
+    {
+        return lineLength;
+    }
+
+    public int GetNickLength()
+    {
+        return nickLength;
+    }
+
+    /**
+     * @return If LIST supports a search extension, eg 'U' for user count
+     */
+    public boolean HasListExtension(char extension)
+    {
+        return listExtensions.indexOf(extension) != -1;
+    }
+
+    /**
+     * @return Max messages per CHATHISTORY request, 0 if there is no limit
+     */
+    public int GetChatHistoryLimit()
+    {
+        return chatHistoryLimit;
+    }
+
+    public String GetNetwork()
+    {
+        return network;
+    }
+
+    private static int ParseInt(String value, int fallback)
+    {
+        if(value.isEmpty()) return fallback;
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException ex)
+        {
+            return fallback;
+        }
+    }
+
+    /**
+     * Decodes \xHH escapes in a token value, eg "Example\x20Net" for a network name with a space
+     */
+    private static String Unescape(String value)
+    {
+        if(value.indexOf('\\') == -1) return value;
+        StringBuilder result = new StringBuilder(value.length());
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if(c == '\\' && i + 3 < value.length() && value.charAt(i + 1) == 'x')
+            {
+                int code = ParseHex(value, i + 2);
+                if(code != -1)
+                {
+                    result.append((char) code);
+                    i += 3;
+                    continue;
+                }
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    private static int ParseHex(String value, int start)
+    {
+        int high = Character.digit(value.charAt(start), 16);
+        int low = Character.digit(value.charAt(start + 1), 16);
+        return high == -1 || low == -1 ? -1 : high * 16 + low;
+    }
+}
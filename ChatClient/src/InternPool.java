@@ -0,0 +1,87 @@
+/* Intern Pool class to share one String instance for nicknames, hostmasks and channel names that repeat across many lines.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, direct mapped cache shared by every server connection. Each slot holds a weak reference to one string,
+ * so the pool never keeps a string alive on its own and never grows. A collision just replaces the slot,
+ * which costs a duplicate string at worst. Safe to use from any thread.
+ */
+public class InternPool {
+    public static final int SIZE = 16384; //Number of slots, a power of two
+
+    private static final AtomicReferenceArray<WeakReference<String>> slots = new AtomicReferenceArray<>(SIZE);
+
+    //Statistics
+    private static volatile long hits; //Lookups that returned a pooled string, updated racily so counts are approximate
+    private static volatile long misses; //Lookups that created a new string
+
+    /**
+     * Gets the pooled string equal to a region of a line, creating and pooling it if needed. The region is only copied on a miss
+     * @param line Line containing the string
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @return String equal to line.substring(start, end)
+     */
+    public static String Intern(String line, int start, int end)
+    {
+        int hash = 0;
+        for(int i = start; i < end; i++) //Same hash as String.hashCode, so a pooled string's cached hash can be compared
+            hash = 31 * hash + line.charAt(i);
+        int slot = Mix(hash) & (SIZE - 1);
+        WeakReference<String> reference = slots.get(slot);
+        String pooled = reference == null ? null : reference.get();
+        int length = end - start;
+        if(pooled != null && pooled.length() == length && pooled.hashCode() == hash && line.regionMatches(start, pooled, 0, length))
+        {
+            hits++;
+            return pooled;
+        }
+        misses++;
+        String value = line.substring(start, end);
+        slots.set(slot, new WeakReference<>(value)); //Replace whatever was there
+        return value;
+    }
+
+    /**
+     * Gets the pooled string equal to a string
+     * @param value String to intern
+     * @return Pooled string, the same instance as value if it was not pooled yet
+     */
+    public static String Intern(String value)
+    {
+        if(value == null) return null;
+        int hash = value.hashCode();
+        int slot = Mix(hash) & (SIZE - 1);
+        WeakReference<String> reference = slots.get(slot);
+        String pooled = reference == null ? null : reference.get();
+        if(pooled != null && pooled.hashCode() == hash && pooled.equals(value))
+        {
+            hits++;
+            return pooled;
+        }
+        misses++;
+        slots.set(slot, new WeakReference<>(value));
+        return value;
+    }
+
+    /**
+     * @return Fraction of lookups that returned a pooled string
+     */
+    public static double GetHitRate()
+    {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private static int Mix(int hash)
+    {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
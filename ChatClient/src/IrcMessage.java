@@ -0,0 +1,418 @@
+/* IRC Message class to hold a parsed line sent by an IRC server.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.util.Arrays;
+
+public class IrcMessage {
+    private String line = ""; //Raw line that was parsed
+    private int tagsStart = -1; //Start of the IRCv3 message tags after the '@', -1 if there are none
+    private int tagsEnd = -1; //End of the tags (exclusive)
+    private int prefixStart = -1; //Start of the prefix after the ':'
+    private int prefixEnd = -1; //End of prefix (exclusive), -1 if there is no prefix
+    private int nickEnd = -1; //End of the nick part of the prefix
+    private int userStart = -1; //Start of the user part of the prefix, -1 if there is none
+    private int hostStart = -1; //Start of the host part of the prefix, -1 if there is none
+    private int commandStart; //Start of the command or numeric
+    private int commandEnd; //End of the command or numeric (exclusive)
+    private int[] paramStart = new int[15]; //Start of each parameter, grows if a server sends more than 15
+    private int[] paramEnd = new int[15]; //End of each parameter (exclusive)
+    private int paramCount; //Number of parameters
+    private boolean trailing; //If the last parameter was a trailing (':' prefixed) parameter
+
+    /**
+     * Parses a line into offsets. No strings are created until an accessor is called.
+     * This object is reused for each line, so values must be copied out if they are needed after the next parse.
+     * @param line Line without CR/LF
+     * @return False if the line has no command
+     */
+    public boolean Parse(String line)
+    {
+        this.line = line;
+        tagsStart = tagsEnd = prefixStart = prefixEnd = nickEnd = userStart = hostStart = -1;
+        paramCount = 0;
+        trailing = false;
+        int length = line.length();
+        int i = 0;
+
+        if(length > 0 && line.charAt(0) == '@') //Message tags eg @time=2020-01-01T00:00:00.000Z;batch=abc
+        {
+            tagsStart = 1;
+            while(i < length && line.charAt(i) != ' ') i++;
+            tagsEnd = i;
+            while(i < length && line.charAt(i) == ' ') i++;
+        }
+
+        if(i < length && line.charAt(i) == ':') //Prefix eg :nick!user@host
+        {
+            prefixStart = ++i;
+            while(i < length && line.charAt(i) != ' ')
+            {
+                char c = line.charAt(i);
+                if(c == '!' && userStart == -1 && hostStart == -1)
+                    userStart = i + 1;
+                else if(c == '@' && hostStart == -1)
+                    hostStart = i + 1;
+                i++;
+            }
+            prefixEnd = i;
+            if(userStart != -1)
+                nickEnd = userStart - 1;
+            else if(hostStart != -1)
+                nickEnd = hostStart - 1;
+            else
+                nickEnd = prefixEnd;
+        }
+
+        while(i < length && line.charAt(i) == ' ') i++; //Skip spaces
+        commandStart = i;
+        while(i < length && line.charAt(i) != ' ') i++;
+        commandEnd = i;
+        if(commandStart == commandEnd) //No command
+            return false;
+
+        while(i < length)
+        {
+            while(i < length && line.charAt(i) == ' ') i++; //Skip spaces between parameters
+            if(i >= length) break;
+            if(paramCount == paramStart.length) //Grow parameter arrays
+            {
+                paramStart = Arrays.copyOf(paramStart, paramCount * 2);
+                paramEnd = Arrays.copyOf(paramEnd, paramCount * 2);
+            }
+            if(line.charAt(i) == ':') //Trailing parameter, takes the rest of the line
+            {
+                paramStart[paramCount] = i + 1;
+                paramEnd[paramCount++] = length;
+                trailing = true;
+                break;
+            }
+            paramStart[paramCount] = i;
+            while(i < length && line.charAt(i) != ' ') i++;
+            paramEnd[paramCount++] = i;
+        }
+        return true;
+    }
+
+    /**
+     * @return The raw line that was parsed
+     */
+    public String GetLine()
+    {
+        return line;
+    }
+
+    public boolean HasPrefix()
+    {
+        return prefixEnd != -1;
+    }
+
+    /**
+     * @return Prefix without the leading ':', eg nick!user@host or a server name. Empty if there is no prefix
+     */
+    public String Prefix()
+    {
+        return prefixEnd == -1 ? "" : line.substring(prefixStart, prefixEnd);
+    }
+
+    /**
+     * @return Nickname (or server name) part of the prefix, pooled in the InternPool. Empty if there is no prefix
+     */
+    public String Nick()
+    {
+        return prefixEnd == -1 ? "" : InternPool.Intern(line, prefixStart, nickEnd);
+    }
+
+    /**
+     * @return Username part of the prefix, pooled in the InternPool. Empty if there is none
+     */
+    public String User()
+    {
+        if(userStart == -1) return "";
+        return InternPool.Intern(line, userStart, hostStart == -1 ? prefixEnd : hostStart - 1);
+    }
+
+    /**
+     * @return Host part of the prefix, pooled in the InternPool. Empty if there is none
+     */
+    public String Host()
+    {
+        return hostStart == -1 ? "" : InternPool.Intern(line, hostStart, prefixEnd);
+    }
+
+    /**
+     * Compares the nick in the prefix to a name without creating a string
+     * @param nick Nick to compare to
+     * @return True if the prefix nick matches, ignoring case
+     */
+    public boolean NickIs(String nick)
+    {
+        if(prefixEnd == -1 || nick == null) return false;
+        return nickEnd - prefixStart == nick.length() && line.regionMatches(true, prefixStart, nick, 0, nick.length());
+    }
+
+    public boolean HasTags()
+    {
+        return tagsStart != -1;
+    }
+
+    /**
+     * Finds a message tag without creating any strings
+     * @param key Tag name eg "time" or "batch"
+     * @return Start of the tag's escaped value in the raw line, the end of the tag if it has no value, or -1 if the tag is not present
+     */
+    public int TagStart(String key)
+    {
+        int i = tagsStart;
+        while(i != -1 && i < tagsEnd)
+        {
+            int end = line.indexOf(';', i);
+            if(end == -1 || end > tagsEnd) end = tagsEnd;
+            int keyEnd = line.indexOf('=', i);
+            if(keyEnd == -1 || keyEnd > end) keyEnd = end;
+            if(keyEnd - i == key.length() && line.startsWith(key, i))
+                return keyEnd == end ? end : keyEnd + 1;
+            i = end + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @param valueStart Start of a tag value from TagStart
+     * @return End (exclusive) of the value
+     */
+    public int TagEnd(int valueStart)
+    {
+        int end = line.indexOf(';', valueStart);
+        return end == -1 || end > tagsEnd ? tagsEnd : end;
+    }
+
+    public boolean HasTag(String key)
+    {
+        return TagStart(key) != -1;
+    }
+
+    /**
+     * Compares a tag's raw value to a string without creating one, eg to match a batch reference
+     * @return True if the tag is present with exactly that value
+     */
+    public boolean TagIs(String key, String value)
+    {
+        int start = TagStart(key);
+        return start != -1 && TagEnd(start) - start == value.length() && line.startsWith(value, start);
+    }
+
+    /**
+     * @param key Tag name
+     * @return Unescaped value of the tag, empty if it has no value, null if the tag is not present
+     */
+    public String TagValue(String key)
+    {
+        int start = TagStart(key);
+        if(start == -1) return null;
+        int end = TagEnd(start);
+        int escape = line.indexOf('\\', start);
+        if(escape == -1 || escape >= end) //Nothing to unescape
+            return line.substring(start, end);
+        StringBuilder value = new StringBuilder(end - start);
+        for(int i = start; i < end; i++)
+        {
+            char c = line.charAt(i);
+            if(c == '\\' && i + 1 < end)
+            {
+                char escaped = line.charAt(++i);
+                value.append(escaped == ':' ? ';' : escaped == 's' ? ' ' : escaped == 'r' ? '\r' : escaped == 'n' ? '\n' : escaped);
+            }
+            else if(c != '\\') //A lone trailing backslash is dropped
+                value.append(c);
+        }
+        return value.toString();
+    }
+
+    /**
+     * Parses the server-time tag in place, eg time=2011-10-19T16:40:51.620Z
+     * @return Time the server says the message was sent in milliseconds since the epoch, -1 if there is no valid time tag
+     */
+    public long ServerTime()
+    {
+        int start = TagStart("time");
+        if(start == -1) return -1;
+        int end = TagEnd(start);
+        if(end - start < 20 || line.charAt(start + 4) != '-' || line.charAt(start + 10) != 'T') return -1;
+        int year = Digits(start, 4), month = Digits(start + 5, 2), day = Digits(start + 8, 2);
+        int hour = Digits(start + 11, 2), minute = Digits(start + 14, 2), second = Digits(start + 17, 2);
+        int millis = 0;
+        if(end - start >= 24 && line.charAt(start + 19) == '.')
+            millis = Digits(start + 20, 3);
+        if(year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || minute < 0 || second < 0 || millis < 0) return -1;
+        //Days since 1970-01-01 of a proleptic Gregorian date, counting years from March so leap days fall at the end
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+    /**
+     * @return Value of a run of decimal digits in the line, -1 if any character is not a digit
+     */
+    private int Digits(int start, int count)
+    {
+        int value = 0;
+        for(int i = start; i < start + count; i++)
+        {
+            char c = line.charAt(i);
+            if(c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return The command or numeric as sent by the server
+     */
+    public String Command()
+    {
+        return line.substring(commandStart, commandEnd);
+    }
+
+    /**
+     * @return Start offset of the command in the raw line
+     */
+    public int CommandStart()
+    {
+        return commandStart;
+    }
+
+    /**
+     * @return End offset (exclusive) of the command in the raw line
+     */
+    public int CommandEnd()
+    {
+        return commandEnd;
+    }
+
+    /**
+     * Compares the command to a verb without creating a string
+     * @param verb Verb to compare to eg "PRIVMSG"
+     * @return True if the command matches, ignoring case
+     */
+    public boolean CommandIs(String verb)
+    {
+        return commandEnd - commandStart == verb.length() && line.regionMatches(true, commandStart, verb, 0, verb.length());
+    }
+
+    /**
+     * @return The 3 digit numeric reply code, or -1 if the command is not a numeric
+     */
+    public int Numeric()
+    {
+        if(commandEnd - commandStart != 3) return -1;
+        int value = 0;
+        for(int i = commandStart; i < commandEnd; i++)
+        {
+            char c = line.charAt(i);
+            if(c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    public int ParamCount()
+    {
+        return paramCount;
+    }
+
+    /**
+     * @param index Parameter index
+     * @return Parameter value, or an empty string if there is no parameter at that index
+     */
+    public String Param(int index)
+    {
+        if(index < 0 || index >= paramCount) return "";
+        return line.substring(paramStart[index], paramEnd[index]);
+    }
+
+    /**
+     * Gets a parameter that repeats across many lines, such as a channel name or nickname, from the InternPool
+     * @param index Parameter index
+     * @return Pooled parameter value, or an empty string if there is no parameter at that index
+     */
+    public String InternedParam(int index)
+    {
+        if(index < 0 || index >= paramCount) return "";
+        return InternPool.Intern(line, paramStart[index], paramEnd[index]);
+    }
+
+    /**
+     * Compares a parameter to a value without creating a string
+     * @return True if the parameter matches, ignoring case
+     */
+    public boolean ParamIs(int index, String value)
+    {
+        if(index < 0 || index >= paramCount) return false;
+        return paramEnd[index] - paramStart[index] == value.length() && line.regionMatches(true, paramStart[index], value, 0, value.length());
+    }
+
+    /**
+     * @return Start offset of a parameter in the raw line, or -1 if there is no parameter at that index
+     */
+    public int ParamStart(int index)
+    {
+        return index < 0 || index >= paramCount ? -1 : paramStart[index];
+    }
+
+    /**
+     * @return End offset (exclusive) of a parameter in the raw line, or -1 if there is no parameter at that index
+     */
+    public int ParamEnd(int index)
+    {
+        return index < 0 || index >= paramCount ? -1 : paramEnd[index];
+    }
+
+    public boolean HasTrailing()
+    {
+        return trailing;
+    }
+
+    /**
+     * @return The last parameter, which is usually the message text
+     */
+    public String Trailing()
+    {
+        return paramCount == 0 ? "" : Param(paramCount - 1);
+    }
+
+    /**
+     * Gets the text of the line starting at a parameter. If the parameter itself is the trailing parameter the ':' is removed,
+     * otherwise the rest of the line is returned as sent.
+     * @param index Index of the first parameter to include
+     * @return Text from the parameter to the end of the line
+     */
+    public String ParamsFrom(int index)
+    {
+        if(index < 0 || index >= paramCount) return "";
+        return line.substring(paramStart[index]);
+    }
+
+    /**
+     * @return All parameters exactly as sent, including the ':' of a trailing parameter. Used for replies like PONG
+     */
+    public String RawParams()
+    {
+        if(paramCount == 0) return "";
+        return line.substring(trailing && paramCount == 1 ? paramStart[0] - 1 : paramStart[0]);
+    }
+
+    /**
+     * @return The line without its prefix, starting at the command
+     */
+    public String WithoutPrefix()
+    {
+        return line.substring(commandStart);
+    }
+}
@@ -0,0 +1,166 @@
+/* Line Framer class to split raw bytes received from an IRC server into individual lines.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.nio.ByteBuffer;
+
+public class LineFramer {
+    /**
+     * Handler invoked for every complete line found by the framer.
+     * The slice is only valid for the duration of the call, the framer reuses the backing array afterwards.
+     */
+    public interface LineHandler
+    {
+        void Line(byte[] data, int offset, int length);
+    }
+
+    public static final int DEFAULT_MAX_LINE_LENGTH = 8704; //512 byte IRC line plus the 8191 byte IRCv3 tag section and a spare byte
+
+    private final int maxLineLength; //Longest line (excluding terminator) that will be passed to the handler
+    private byte[] partial; //Holds a line that was split across two or more reads
+    private int partialLength = 0; //Number of bytes of the split line held in partial
+    private boolean discarding = false; //If the current line went over the max length and is being skipped up to its terminator
+    private long droppedLines = 0; //Number of lines dropped for being too long
+
+    public LineFramer()
+    {
+        this(DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    /**
+     * @param maxLineLength Maximum number of bytes in a line, not including CR/LF. Longer lines are dropped
+     */
+    public LineFramer(int maxLineLength)
+    {
+        if(maxLineLength < 1)
+            throw new IllegalArgumentException("Max line length must be at least 1");
+        this.maxLineLength = maxLineLength;
+        partial = new byte[Math.min(maxLineLength, 512)]; //Start small, grows up to max line length if needed
+    }
+
+    /**
+     * Scans the readable bytes of a buffer for line terminators and invokes the handler for each complete line.
+     * Lines ending in either CRLF or a bare LF are accepted. Lines fully contained in a heap buffer are handed out
+     * as slices of that buffer without copying, only a trailing incomplete line is copied and kept for the next call.
+     * The buffer is fully consumed by this method.
+     * @param buffer Buffer in read mode (flipped) containing newly received data
+     * @param handler Handler to invoke for each line
+     */
+    public void Feed(ByteBuffer buffer, LineHandler handler)
+    {
+        byte[] data;
+        int start;
+        int end;
+        if(buffer.hasArray()) //Scan heap buffers in place
+        {
+            data = buffer.array();
+            start = buffer.arrayOffset() + buffer.position();
+            end = buffer.arrayOffset() + buffer.limit();
+        }
+        else //Direct buffers have no backing array, copy them once
+        {
+            data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            start = 0;
+            end = data.length;
+        }
+        buffer.position(buffer.limit()); //Mark the whole buffer as consumed
+
+        int lineStart = start;
+        for(int i = start; i < end; i++)
+        {
+            if(data[i] != '\n') continue; //Only LF ends a line, CR is stripped below
+            if(discarding) //Terminator of an overlong line, skip it and resume normal framing
+            {
+                discarding = false;
+                partialLength = 0;
+            }
+            else if(partialLength > 0) //Line started in a previous read
+            {
+                if(!Append(data, lineStart, i - lineStart) || LineLength(partial, 0, partialLength) > maxLineLength) //The extra byte was not a CR
+                    droppedLines++;
+                else
+                    Emit(partial, 0, partialLength, handler);
+                partialLength = 0;
+                discarding = false; //Terminator already reached, nothing left to skip
+            }
+            else if(LineLength(data, lineStart, i - lineStart) > maxLineLength) //Whole line is in this read but too long
+                droppedLines++;
+            else
+                Emit(data, lineStart, i - lineStart, handler); //Zero copy slice of the read buffer
+            lineStart = i + 1;
+        }
+
+        if(lineStart < end && !discarding) //Keep the incomplete tail for the next read
+        {
+            if(!Append(data, lineStart, end - lineStart))
+                droppedLines++;
+        }
+    }
+
+    /**
+     * Clears any partially received line. Used when the connection is reset.
+     */
+    public void Reset()
+    {
+        partialLength = 0;
+        discarding = false;
+    }
+
+    /**
+     * @return Number of lines that were dropped because they were longer than the max line length
+     */
+    public long GetDroppedLines()
+    {
+        return droppedLines;
+    }
+
+    public int GetMaxLineLength()
+    {
+        return maxLineLength;
+    }
+
+    /**
+     * Invokes the handler for a line, removing the CR of a CRLF terminator.
+     */
+    private void Emit(byte[] data, int offset, int length, LineHandler handler)
+    {
+        if(length > 0 && data[offset + length - 1] == '\r') //Strip CR
+            length--;
+        handler.Line(data, offset, length);
+    }
+
+    /**
+     * @return Length of a line without the CR of a CRLF terminator
+     */
+    private static int LineLength(byte[] data, int offset, int length)
+    {
+        return length > 0 && data[offset + length - 1] == '\r' ? length - 1 : length;
+    }
+
+    /**
+     * Appends bytes to the partial line buffer, growing it if required.
+     * @return False if the line went over the max length, in which case the rest of the line is discarded
+     */
+    private boolean Append(byte[] data, int offset, int length)
+    {
+        int needed = partialLength + length;
+        if(needed > maxLineLength + 1) //Allow one extra byte in case it is the CR, checked once the line ends
+        {
+            partialLength = 0;
+            discarding = true;
+            return false;
+        }
+        if(needed > partial.length) //Grow buffer
+        {
+            byte[] grown = new byte[Math.min(Math.max(needed, partial.length * 2), maxLineLength + 1)];
+            System.arraycopy(partial, 0, grown, 0, partialLength);
+            partial = grown;
+        }
+        System.arraycopy(data, offset, partial, partialLength, length);
+        partialLength = needed;
+        return true;
+    }
+}
@@ -0,0 +1,193 @@
+/* Line Store class to hold chat lines compactly for the virtualized chat view.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import javax.swing.*;
+import java.awt.*;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.List;
+
+public class LineStore extends AbstractListModel<String> {
+    private static final Color[] palette = { Color.BLACK, Color.RED, new Color(0, 128, 0), Color.BLUE, Color.GRAY, Color.ORANGE, Color.MAGENTA }; //Same colours the HTML view uses for the names in ChatLine.COLORS
+
+    //Ring buffer of lines, each line is stored as its full text plus two style runs: the nick and the rest of the line
+    private String[] texts = new String[256]; //Full text of each line eg "nick: message"
+    private int[] nickEnds = new int[256]; //Length of the nick run, 0 if the line has no nick
+    private byte[] nickColors = new byte[256]; //Palette index of the nick run
+    private byte[] textColors = new byte[256]; //Palette index of the text run
+    private int head = 0; //Physical index of the oldest line
+    private int size = 0; //Number of lines stored
+    private long chars = 0; //Total characters stored
+
+    /**
+     * Appends lines to the end of the store and notifies the view once for all of them
+     * @param lines Lines to append
+     */
+    public void AddAll(List<ChatLine> lines)
+    {
+        if(lines.isEmpty()) return;
+        int first = size;
+        for(ChatLine line : lines)
+            Add(line);
+        fireIntervalAdded(this, first, size - 1);
+    }
+
+    /**
+     * Inserts lines before the oldest line and notifies the view once, for older history paged in
+     * @param lines Lines to insert, oldest first
+     */
+    public void PrependAll(List<ChatLine> lines)
+    {
+        int count = lines.size();
+        if(count == 0) return;
+        while(size + count > texts.length)
+            Grow();
+        head = (head - count + texts.length) % texts.length;
+        for(int i = 0; i < count; i++)
+            Set(Physical(i), lines.get(i));
+        size += count;
+        fireIntervalAdded(this, 0, count - 1);
+    }
+
+    /**
+     * Removes the oldest lines and notifies the view once
+     * @param count Number of lines to remove
+     */
+    public void RemoveOldest(int count)
+    {
+        count = Math.min(count, size);
+        if(count <= 0) return;
+        for(int i = 0; i < count; i++)
+        {
+            int index = Physical(i);
+            chars -= texts[index].length();
+            texts[index] = null; //Let the string be collected
+        }
+        head = (head + count) % texts.length;
+        size -= count;
+        fireIntervalRemoved(this, 0, count - 1);
+    }
+
+    /**
+     * @return Total characters in all stored lines
+     */
+    public long GetChars()
+    {
+        return chars;
+    }
+
+    @Override
+    public int getSize()
+    {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index)
+    {
+        return texts[Physical(index)];
+    }
+
+    private void Add(ChatLine line)
+    {
+        if(size == texts.length) //Full, double the capacity
+            Grow();
+        Set(Physical(size), line);
+        size++;
+    }
+
+    /**
+     * Stores a line in a physical slot
+     */
+    private void Set(int index, ChatLine line)
+    {
+        if(line.nick != null)
+        {
+            texts[index] = line.nick + ": " + line.text;
+            nickEnds[index] = line.nick.length();
+            nickColors[index] = ChatLine.ColorIndex(line.nickColor);
+        }
+        else
+        {
+            texts[index] = line.text;
+            nickEnds[index] = 0;
+        }
+        textColors[index] = ChatLine.ColorIndex(line.color);
+        chars += texts[index].length();
+    }
+
+    private int Physical(int index)
+    {
+        return (head + index) % texts.length;
+    }
+
+    private void Grow()
+    {
+        int capacity = texts.length * 2;
+        texts = Unwrap(texts, Arrays.copyOf(texts, capacity));
+        nickEnds = Unwrap(nickEnds, Arrays.copyOf(nickEnds, capacity));
+        nickColors = Unwrap(nickColors, Arrays.copyOf(nickColors, capacity));
+        textColors = Unwrap(textColors, Arrays.copyOf(textColors, capacity));
+        head = 0;
+    }
+
+    /**
+     * Moves the wrapped part of a full ring buffer so the lines start at index 0 of the larger array
+     */
+    private <T> T Unwrap(T oldArray, T newArray)
+    {
+        int length = Array.getLength(oldArray);
+        System.arraycopy(oldArray, head, newArray, 0, length - head);
+        System.arraycopy(oldArray, 0, newArray, length - head, head);
+        return newArray;
+    }
+
+    /**
+     * Cell renderer that paints a line straight from the store's runs. Only visible rows are ever painted.
+     */
+    public static class Renderer extends JComponent implements ListCellRenderer<String>
+    {
+        private LineStore store; //Store being rendered
+        private int index; //Logical index of the line being painted
+        private boolean selected; //If the line is selected
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends String> list, String value, int index, boolean isSelected, boolean cellHasFocus)
+        {
+            store = (LineStore) list.getModel();
+            this.index = index;
+            selected = isSelected;
+            setFont(list.getFont());
+            setBackground(isSelected ? list.getSelectionBackground() : list.getBackground());
+            return this;
+        }
+
+        @Override
+        protected void paintComponent(Graphics g)
+        {
+            if(selected)
+            {
+                g.setColor(getBackground());
+                g.fillRect(0, 0, getWidth(), getHeight());
+            }
+            int physical = store.Physical(index);
+            String text = store.texts[physical];
+            if(text == null) return;
+            FontMetrics metrics = g.getFontMetrics(getFont());
+            int y = metrics.getAscent();
+            int x = 2;
+            int nickEnd = store.nickEnds[physical];
+            if(nickEnd > 0) //Nick run
+            {
+                g.setColor(palette[store.nickColors[physical]]);
+                g.drawString(text.substring(0, nickEnd), x, y);
+                x += metrics.stringWidth(text.substring(0, nickEnd));
+            }
+            g.setColor(palette[store.textColors[physical]]); //Text run
+            g.drawString(nickEnd > 0 ? text.substring(nickEnd) : text, x, y);
+        }
+    }
+}
@@ -5,77 +5,83 @@
  */
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.TableModel;
+import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.WindowEvent;
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.regex.Pattern;
 
 public class ListWindow {
-    public ArrayList<String> listItems;
+    public ChannelListModel model; //Channels in the list, filled while the LIST reply streams in
 
-    public ListWindow(ArrayList<String> listItems)
-    {
-        this.listItems = listItems;
-        ProcessData();
-        SetupGUI();
-    }
+    private JFrame frame; //Window
+    private JTable table; //Table of channels
+    private TableRowSorter<TableModel> sorter; //Sorts and filters the table rows
+    private JTextField filterField; //Text the channel name and topic are filtered by
+    private JLabel statusLabel; //Channel count and list progress
+    private boolean listing; //If a LIST reply is still being received
 
-    //Source https://stackoverflow.com/questions/388461/how-can-i-pad-a-string-in-java
-    public static String padRight(String s, int n) {
-        return String.format("%1$-" + n + "s", s);
-    }
-
-    public void ProcessData()
+    /**
+     * @param model Model the LIST reply is streamed into
+     */
+    public ListWindow(ChannelListModel model)
     {
-        for(int i = 0; i < listItems.size(); i++) {
-            Scanner sc = new Scanner(listItems.get(i));
-            sc.next(); //Skip list response code
-            sc.next(); //Skip ird destination
-            String channel = padRight(sc.next(), 20); //Grab channel name
-            int userCount = sc.nextInt(); //Grab user count
-            String users = sc.next() + ", ";
-            if(users.equals(":, ")) //Check if there are no users
-                users = ""; //Clear users
-            else
-                users = users.substring(1); //Remove ':'
-            while(sc.hasNext())
-            {
-                users += sc.next() + ", ";
-            }
-            if(users.length() > 2)
-                users = users.substring(0, users.length() - 2); //remove trailing comma and space
-            listItems.set(i, channel + "\t\t" + userCount + " users: " + users);
-        }
+        this.model = model;
+        SetupGUI();
+        model.addTableModelListener(e -> UpdateStatus());
     }
 
     public void SetupGUI()
     {
-        JFrame frame = new JFrame(); //Create window
-        frame.setPreferredSize(new Dimension(300, 400)); //Set window size
+        frame = new JFrame("Channels"); //Create window
+        frame.setPreferredSize(new Dimension(600, 400)); //Set window size
+        frame.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE); //Keep the window so the next list can reuse it
 
         JPanel container = new JPanel(new GridBagLayout()); //New parent container for this window, uses grid bag layout scheme
         GridBagConstraints c = new GridBagConstraints(); //Create grid bag layout constraints to position and size child elements
         c.insets = new Insets(3,3,3,3); //add padding
 
-        //Source: https://docs.oracle.com/javase/tutorial/uiswing/components/list.html
-        JList list = new JList(listItems.toArray()); //Create new jlist with the list of users as the source
-        list.setSelectionMode(ListSelectionModel.SINGLE_INTERVAL_SELECTION); //Let user select only one at a time
-        list.setLayoutOrientation(JList.VERTICAL); //Make options flow down page vertically
-        list.setVisibleRowCount(-1); //Dont set max visible rows
+        filterField = new JTextField(); //Filter box, matches channel name or topic
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) { UpdateFilter(); }
 
-        JScrollPane listScroller = new JScrollPane(list);
-        listScroller.setPreferredSize(new Dimension(250, 80));
-        //Source end
+            @Override
+            public void removeUpdate(DocumentEvent e) { UpdateFilter(); }
 
-        c.fill = GridBagConstraints.BOTH; //Fill size both vertically and horizontally
+            @Override
+            public void changedUpdate(DocumentEvent e) { UpdateFilter(); }
+        });
+        c.fill = GridBagConstraints.HORIZONTAL; //Horizontally fill the filter width
         c.weightx = 1;
-        c.weighty = 1;
+        container.add(filterField, c);
 
-        container.add(listScroller, c); //add list scroller button to the container
+        table = new JTable(model); //Table reads rows straight from the model, only visible rows are rendered
+        sorter = new TableRowSorter<>(model);
+        sorter.setSortsOnUpdates(true); //Keep the sort order while rows stream in
+        table.setRowSorter(sorter);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(150);
+        table.getColumnModel().getColumn(1).setPreferredWidth(50);
+        table.getColumnModel().getColumn(2).setPreferredWidth(400);
 
-        c.fill = GridBagConstraints.HORIZONTAL; //Horizontally fill the button width
+        JScrollPane tableScroller = new JScrollPane(table);
+        tableScroller.setPreferredSize(new Dimension(250, 80));
+
+        c.fill = GridBagConstraints.BOTH; //Fill size both vertically and horizontally
         c.gridy = 1;
+        c.weighty = 1;
+        container.add(tableScroller, c); //add table scroller to the container
+
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.gridy = 2;
         c.weighty = 0;
+        statusLabel = new JLabel(" ");
+        container.add(statusLabel, c);
+
+        c.gridy = 3;
         c.anchor = GridBagConstraints.SOUTH;
         JButton submitButton = new JButton("OK");
         submitButton.addActionListener((ActionEvent) -> {
@@ -86,11 +92,42 @@ public class ListWindow {
 
         frame.add(container); //add the container to the window
         frame.pack(); //Pack the GUI elements into the window
+    }
+
+    /**
+     * Clears the table and shows the window for a new list. Runs on the event thread
+     */
+    public void ListStarted()
+    {
+        listing = true;
+        model.Clear();
         frame.setVisible(true); //Make the window visible
+        UpdateStatus();
+    }
+
+    /**
+     * Adds any channels still waiting and marks the list as complete. Runs on the event thread
+     */
+    public void ListEnded()
+    {
+        listing = false;
+        model.Flush();
+        UpdateStatus();
+    }
+
+    private void UpdateFilter()
+    {
+        String text = filterField.getText().trim();
+        if(text.isEmpty())
+            sorter.setRowFilter(null); //Show everything
+        else
+            sorter.setRowFilter(RowFilter.regexFilter("(?i)" + Pattern.quote(text), 0, 2)); //Case insensitive match on channel or topic
+        UpdateStatus();
     }
 
-    public static void HandleList(ArrayList<String> list)
+    private void UpdateStatus()
     {
-        new ListWindow(list);
+        String status = table.getRowCount() + " of " + model.getRowCount() + " channels, " + model.GetTotalUsers() + " users";
+        statusLabel.setText(listing ? status + " (receiving...)" : status);
     }
 }
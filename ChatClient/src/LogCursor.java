@@ -0,0 +1,189 @@
+/* Log Cursor class to page through a tab's chat log from newest to oldest.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Reads records backwards using the length stored at the end of each record, so only the pages asked for are read,
+ * however large the log is. The cursor sits between two records, reading older moves it towards the start of the log.
+ */
+public class LogCursor {
+    public static final int CHUNK_SIZE = 65536; //Bytes read from a segment at a time, larger than any record
+
+    private final Path directory; //Tab log directory
+    private int segment; //Segment the cursor is in, 0 once the start of the log has been passed
+    private long position; //Offset in the segment, records before this have not been read
+
+    /**
+     * Creates a cursor at the end of a tab's log. Lines logged after this are not returned
+     * @param directory Tab log directory, see ChatLog.TabDirectory
+     */
+    public LogCursor(Path directory)
+    {
+        this.directory = directory;
+        segment = 0;
+        position = 0;
+        if(!Files.isDirectory(directory)) return; //No history yet
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log"))
+        {
+            for(Path file : files)
+                segment = Math.max(segment, ChatLog.SegmentNumber(file));
+            if(segment > 0)
+                position = Files.size(ChatLog.SegmentFile(directory, segment));
+        }
+        catch (IOException ex)
+        {
+            segment = 0; //Unreadable, behave as if there is no history
+        }
+    }
+
+    /**
+     * @return If there may be older records
+     */
+    public synchronized boolean HasOlder()
+    {
+        return segment > 0;
+    }
+
+    /**
+     * Moves the cursor to just before a record, so the next read returns the records before it
+     * @param segment Segment of the record
+     * @param offset Offset of the record
+     */
+    public synchronized void Seek(int segment, long offset)
+    {
+        this.segment = segment;
+        this.position = offset;
+    }
+
+    /**
+     * @return Segment and offset of the cursor, for Seek
+     */
+    public synchronized long[] GetPosition()
+    {
+        return new long[] { segment, position };
+    }
+
+    /**
+     * Reads records before the cursor and moves the cursor before them
+     * @param count Max records to read
+     * @return Records, oldest first. Fewer than count once the start of the log is reached
+     * @throws IOException If a segment could not be read. The cursor stops at damaged records
+     */
+    public synchronized ArrayList<ChatLog.Entry> ReadOlder(int count) throws IOException
+    {
+        ArrayList<ChatLog.Entry> entries = new ArrayList<>(count);
+        while(entries.size() < count && segment > 0)
+        {
+            if(position == 0) //Start of this segment, continue in the previous one
+            {
+                PreviousSegment();
+                continue;
+            }
+            long chunkStart = Math.max(0, position - CHUNK_SIZE);
+            ByteBuffer chunk = ByteBuffer.allocate((int) (position - chunkStart));
+            try (FileChannel channel = FileChannel.open(ChatLog.SegmentFile(directory, segment), StandardOpenOption.READ))
+            {
+                while(chunk.hasRemaining())
+                {
+                    if(channel.read(chunk, chunkStart + chunk.position()) < 0)
+                        throw new IOException("Log segment is shorter than expected");
+                }
+            }
+            int end = chunk.capacity(); //End of the next record to read, relative to the chunk
+            while(entries.size() < count && end >= 4)
+            {
+                int length = chunk.getInt(end - 4);
+                int start = end - 8 - length;
+                if(length < 13 || start < 0)
+                {
+                    if(chunkStart == 0 || length < 13 || length + 8 > CHUNK_SIZE) //Damaged record, nothing older can be trusted
+                    {
+                        segment = 0;
+                        break;
+                    }
+                    break; //Record starts before this chunk, read the next chunk
+                }
+                if(chunk.getInt(start) != length)
+                {
+                    segment = 0;
+                    break;
+                }
+                chunk.position(start + 4);
+                ByteBuffer body = chunk.slice();
+                body.limit(length);
+                ChatLog.Entry entry = ChatLog.Decode(body, length);
+                entry.segment = segment;
+                entry.offset = (int) (chunkStart + start);
+                entries.add(entry);
+                end = start;
+            }
+            if(end == chunk.capacity()) //No whole record in the chunk, the segment is damaged
+                segment = 0;
+            if(segment > 0)
+                position = chunkStart + end;
+        }
+        Collections.reverse(entries); //Read newest first, returned oldest first
+        return entries;
+    }
+
+    /**
+     * Reads forward over records after the cursor without returning them, eg when lines shown after the cursor are removed from a tab
+     * @param count Number of records to skip
+     * @throws IOException If a segment could not be read
+     */
+    public synchronized void SkipForward(int count) throws IOException
+    {
+        if(segment == 0) return;
+        ByteBuffer header = ByteBuffer.allocate(4);
+        for(int i = 0; i < count; i++)
+        {
+            Path file = ChatLog.SegmentFile(directory, segment);
+            if(position >= Files.size(file))
+            {
+                if(!Files.exists(ChatLog.SegmentFile(directory, segment + 1))) return; //End of the log
+                segment++;
+                position = 0;
+                i--;
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+            {
+                header.clear();
+                while(header.hasRemaining())
+                {
+                    if(channel.read(header, position + header.position()) < 0) return;
+                }
+            }
+            position += 8 + header.getInt(0);
+        }
+    }
+
+    /**
+     * Moves the cursor to the end of the newest older segment, skipping missing segments
+     */
+    private void PreviousSegment() throws IOException
+    {
+        while(--segment > 0)
+        {
+            Path file = ChatLog.SegmentFile(directory, segment);
+            if(Files.exists(file))
+            {
+                position = Files.size(file);
+                return;
+            }
+        }
+        position = 0;
+    }
+}
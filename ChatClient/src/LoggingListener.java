@@ -0,0 +1,125 @@
+/* Logging Listener class to write every line shown by a connection's front end to the chat log, then pass it on.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.util.List;
+
+/**
+ * Wraps the listener of a server connection. Lines are logged under the tab they are shown in,
+ * server output under "server". Every event is passed on to the wrapped listener unchanged.
+ */
+public class LoggingListener implements ConnectionListener {
+    public static final String SERVER_TAB = "server"; //Log name of the network tab
+
+    private final ConnectionListener inner; //Listener events are passed on to
+    private final String network; //Connection name the lines are logged under
+
+    /**
+     * @param inner Listener events are passed on to
+     * @param network Connection name eg host:port
+     */
+    public LoggingListener(ConnectionListener inner, String network)
+    {
+        this.inner = inner;
+        this.network = network;
+    }
+
+    /**
+     * @return The wrapped listener
+     */
+    public ConnectionListener GetInner()
+    {
+        return inner;
+    }
+
+    @Override
+    public void RawLine(String line)
+    {
+        inner.RawLine(line);
+    }
+
+    @Override
+    public void ServerMessage(String message, String color)
+    {
+        ChatLog.Append(network, SERVER_TAB, new ChatLine(message, color));
+        inner.ServerMessage(message, color);
+    }
+
+    @Override
+    public void ServerBlock(List<String> lines, String color)
+    {
+        for(String line : lines)
+            ChatLog.Append(network, SERVER_TAB, new ChatLine(line, color));
+        inner.ServerBlock(lines, color);
+    }
+
+    @Override
+    public void TargetMessage(String target, String message, String color)
+    {
+        ChatLog.Append(network, target, new ChatLine(message, color));
+        inner.TargetMessage(target, message, color);
+    }
+
+    @Override
+    public void ChatMessage(String target, String nick, String text, boolean own)
+    {
+        ChatLog.Append(network, target, new ChatLine(nick, own ? "red" : "blue", text));
+        inner.ChatMessage(target, nick, text, own);
+    }
+
+    @Override
+    public void BatchStarted(String type)
+    {
+        inner.BatchStarted(type);
+    }
+
+    @Override
+    public void BatchEnded()
+    {
+        inner.BatchEnded();
+    }
+
+    @Override
+    public void NetworkNameChanged(String networkName)
+    {
+        inner.NetworkNameChanged(networkName);
+    }
+
+    @Override
+    public void CaseMappingChanged()
+    {
+        inner.CaseMappingChanged();
+    }
+
+    @Override
+    public void ChannelJoined(String channel)
+    {
+        inner.ChannelJoined(channel);
+    }
+
+    @Override
+    public void ChannelListStarted()
+    {
+        inner.ChannelListStarted();
+    }
+
+    @Override
+    public void ChannelListed(String channel, int users, String topic)
+    {
+        inner.ChannelListed(channel, users, topic);
+    }
+
+    @Override
+    public void ChannelListEnded()
+    {
+        inner.ChannelListEnded();
+    }
+
+    @Override
+    public void NicknameInUse()
+    {
+        inner.NicknameInUse();
+    }
+}
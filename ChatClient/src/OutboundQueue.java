@@ -0,0 +1,511 @@
+/* Outbound Queue class to send lines to an IRC server with only one socket write in flight at a time, paced by flood control.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class OutboundQueue {
+    public static final int MAX_WRITE_SIZE = 16384; //Max bytes gathered into a single socket write
+
+    public enum Priority //Send lanes, drained in this order
+    {
+        URGENT, //PONG and registration, skip ahead of everything and are never held back by flood control
+        CHAT, //User chat and general commands
+        BULK //Commands with large replies such as LIST, sent last
+    }
+
+    /**
+     * A line waiting to be written
+     */
+    private static class PendingLine
+    {
+        final String line; //Line without CR/LF
+        final long queuedAt; //System.nanoTime when the line was queued
+        final CompletionHandler<Void, String> sent; //Told when the line has been written or dropped, may be null
+
+        PendingLine(String line, CompletionHandler<Void, String> sent)
+        {
+            this.line = line;
+            this.queuedAt = System.nanoTime();
+            this.sent = sent;
+        }
+    }
+
+    private final ServerConnection context; //Connection that owns this queue, told about write failures
+    private final ConcurrentLinkedQueue<PendingLine>[] lanes; //Lines waiting to be written, one queue per priority
+    private final AtomicBoolean resumeScheduled = new AtomicBoolean(false); //If the pacing timer will resume draining
+    private volatile FloodControl floodControl = new FloodControl(); //Token bucket that paces non urgent lines
+    private final AtomicBoolean writing = new AtomicBoolean(false); //If a write is in flight
+    private final AtomicInteger holds = new AtomicInteger(); //Callers holding writes back while they queue a burst
+    private final AtomicInteger queuedLines = new AtomicInteger(); //Number of lines waiting, for statistics only, the lanes decide what is sent
+    private final Object writeLock = new Object(); //Guards switching sockets against filling and finishing a write
+    private final AtomicLong queuedBytes = new AtomicLong(); //Number of bytes waiting, including CR/LF
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(MAX_WRITE_SIZE); //Buffer lines are gathered into, reused for every write
+    private volatile Transport channel; //Socket to write to
+    private long oldestInWrite; //Queue time of the oldest line in the write in flight
+    private final ArrayList<PendingLine> handlersInWrite = new ArrayList<>(); //Lines in the write in flight that have a completion handler
+    private final StringBuilder merged = new StringBuilder(); //Multi target line being built, reused for every merge
+
+    //Write statistics
+    private final AtomicLong writes = new AtomicLong(); //Number of completed writes
+    private final AtomicLong linesWritten = new AtomicLong(); //Number of lines written
+    private final AtomicLong totalLatency = new AtomicLong(); //Sum of queue to write completion latency in nanoseconds, measured from the oldest line in each write
+    private final AtomicLong maxLatency = new AtomicLong(); //Highest latency seen in nanoseconds
+    private int linesInWrite; //Number of lines in the write in flight
+    private final AtomicLong linesMerged = new AtomicLong(); //Number of queued lines sent as part of another line's multi target command
+
+    @SuppressWarnings("unchecked")
+    public OutboundQueue(ServerConnection context)
+    {
+        this.context = context;
+        lanes = (ConcurrentLinkedQueue<PendingLine>[]) new ConcurrentLinkedQueue<?>[Priority.values().length];
+        for(int i = 0; i < lanes.length; i++)
+            lanes[i] = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Sets the send rate. Takes effect for the next line sent
+     * @param burst Number of lines that can be sent at once before pacing starts
+     * @param interval Milliseconds per line after the burst is used up, 0 to disable pacing
+     */
+    public void SetRate(int burst, int interval)
+    {
+        floodControl = new FloodControl(burst, interval);
+    }
+
+    /**
+     * Picks the lane for a line from its command verb
+     * @param line Line to send
+     * @return URGENT for PONG and registration, BULK for commands with large replies, CHAT for everything else
+     */
+    public static Priority PriorityOf(String line)
+    {
+        int end = line.indexOf(' ');
+        String verb = end == -1 ? line : line.substring(0, end);
+        switch (verb.toUpperCase())
+        {
+            case "PONG": case "PASS": case "NICK": case "USER": case "CAP": case "AUTHENTICATE": case "QUIT":
+                return Priority.URGENT;
+            case "LIST": case "WHO": case "WHOIS": case "WHOWAS": case "NAMES": case "MOTD": case "HELP": case "INFO": case "USERS": case "LINKS": case "STATS":
+                return Priority.BULK;
+            default:
+                return Priority.CHAT;
+        }
+    }
+
+    /**
+     * Sets the socket to write to and drops anything queued for a previous socket
+     * @param channel Newly connected socket, null to detach while a new socket connects
+     */
+    public void Reset(Transport channel)
+    {
+        ArrayList<PendingLine> dropped = new ArrayList<>();
+        synchronized (writeLock)
+        {
+            this.channel = channel; //A write still in flight on the old socket is ignored when it finishes
+            if(writing.get())
+                dropped.addAll(handlersInWrite);
+            handlersInWrite.clear();
+            for(ConcurrentLinkedQueue<PendingLine> lane : lanes)
+            {
+                for(PendingLine line; (line = lane.poll()) != null; )
+                {
+                    if(line.sent != null)
+                        dropped.add(line);
+                }
+            }
+            queuedLines.set(0);
+            queuedBytes.set(0);
+            writing.set(false);
+            floodControl.Reset(); //Lines forced through on the old socket don't count against the new one
+        }
+        for(PendingLine line : dropped)
+            line.sent.failed(new ClosedChannelException(), line.line); //Never sent on the new socket
+    }
+
+    /**
+     * Queues a line in the lane picked from its verb and starts a write if none is in flight. Never blocks.
+     * @param line Line to send, without CR/LF
+     */
+    public void Add(String line)
+    {
+        Add(line, PriorityOf(line));
+    }
+
+    /**
+     * Queues a line and starts a write if none is in flight and flood control allows it. Never blocks.
+     * @param line Line to send, without CR/LF
+     * @param priority Lane to queue the line in
+     */
+    public void Add(String line, Priority priority)
+    {
+        Add(line, priority, null);
+    }
+
+    /**
+     * Queues a line and starts a write if none is in flight and flood control allows it. Never blocks.
+     * @param line Line to send, without CR/LF
+     * @param priority Lane to queue the line in
+     * @param sent Told once the write holding the line completes, or failed if the write fails or the line is dropped.
+     *             A line merged into a multi target command still gets its own result. Called on an I/O thread
+     */
+    public void Add(String line, Priority priority, CompletionHandler<Void, String> sent)
+    {
+        lanes[priority.ordinal()].add(new PendingLine(line, sent));
+        queuedLines.incrementAndGet();
+        queuedBytes.addAndGet(line.length() + 2);
+        Drain();
+    }
+
+    /**
+     * @return Number of lines waiting to be written
+     */
+    public int GetQueuedLines()
+    {
+        return queuedLines.get();
+    }
+
+    /**
+     * @return Number of bytes waiting to be written
+     */
+    public long GetQueuedBytes()
+    {
+        return queuedBytes.get();
+    }
+
+    /**
+     * @return Average time in milliseconds from a line being queued to its write completing
+     */
+    public double GetAverageLatency()
+    {
+        long count = writes.get();
+        return count == 0 ? 0 : totalLatency.get() / 1e6 / count;
+    }
+
+    /**
+     * @return Highest time in milliseconds from a line being queued to its write completing
+     */
+    public double GetMaxLatency()
+    {
+        return maxLatency.get() / 1e6;
+    }
+
+    /**
+     * @return Average number of lines gathered into each write
+     */
+    public double GetAverageLinesPerWrite()
+    {
+        long count = writes.get();
+        return count == 0 ? 0 : (double) linesWritten.get() / count;
+    }
+
+    /**
+     * @return Number of queued lines that were sent as part of another line's multi target command
+     */
+    public long GetLinesMerged()
+    {
+        return linesMerged.get();
+    }
+
+    /**
+     * Holds writes back until Release, so lines queued one at a time meanwhile can be merged and sent together
+     */
+    public void Hold()
+    {
+        holds.incrementAndGet();
+    }
+
+    /**
+     * Ends a Hold, writing what was queued during it once nothing else holds the queue
+     */
+    public void Release()
+    {
+        if(holds.decrementAndGet() == 0)
+            Drain();
+    }
+
+    /**
+     * Gathers as many queued lines as fit into the write buffer and flood control allows, and writes them, if no write is in flight.
+     * If lines are held back by flood control, draining is resumed by the pacing timer when a token is available.
+     */
+    private void Drain()
+    {
+        while(HasQueued() && holds.get() == 0 && !writing.get())
+        {
+            synchronized (writeLock) //Only one thread gets to start a write, and never while the socket is being switched
+            {
+                if(writing.get()) return; //Another thread started one meanwhile
+                if(Fill())
+                {
+                    writing.set(true);
+                    Write();
+                    return;
+                }
+            }
+            long wait = floodControl.NanosUntilAvailable();
+            if(wait > 0) //Held back by flood control
+            {
+                if(resumeScheduled.compareAndSet(false, true))
+                    ConnectionManager.GetScheduler().schedule(() -> { //Resume on the shared timer thread
+                        resumeScheduled.set(false);
+                        Drain();
+                    }, wait, TimeUnit.NANOSECONDS);
+                return;
+            }
+            //Nothing was taken but a token is available, a line was added meanwhile so check again
+        }
+    }
+
+    /**
+     * @return If any lane has a line waiting
+     */
+    private boolean HasQueued()
+    {
+        for(ConcurrentLinkedQueue<PendingLine> lane : lanes)
+        {
+            if(!lane.isEmpty())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves queued lines into the write buffer, highest priority lane first.
+     * Urgent lines always go, other lines each need a flood control token.
+     * @return True if anything was added
+     */
+    private boolean Fill()
+    {
+        writeBuffer.clear();
+        linesInWrite = 0;
+        handlersInWrite.clear();
+        FloodControl bucket = floodControl;
+        for(Priority priority : Priority.values())
+        {
+            ConcurrentLinkedQueue<PendingLine> lane = lanes[priority.ordinal()];
+            PendingLine next;
+            while((next = lane.peek()) != null)
+            {
+                int size = next.line.length() + 2;
+                if(size > writeBuffer.remaining() && linesInWrite > 0) //Full, the rest goes in the next write
+                {
+                    writeBuffer.flip();
+                    return true;
+                }
+                if(priority == Priority.URGENT)
+                    bucket.Take(); //Counts against the budget but is never held back
+                else if(!bucket.TryTake()) //Out of tokens, lower lanes would need tokens too
+                {
+                    writeBuffer.flip();
+                    return linesInWrite > 0;
+                }
+                lane.poll();
+                queuedLines.decrementAndGet();
+                queuedBytes.addAndGet(-size);
+                if(linesInWrite == 0)
+                    oldestInWrite = next.queuedAt;
+                if(next.sent != null)
+                    handlersInWrite.add(next);
+                String line = next.line;
+                if(priority != Priority.URGENT && (line.startsWith("PRIVMSG ") || line.startsWith("NOTICE ") || line.startsWith("JOIN ")))
+                    line = Merge(line, lane); //Same token pays for every target merged in
+                Encode(line);
+                linesInWrite++;
+            }
+        }
+        writeBuffer.flip();
+        return linesInWrite > 0;
+    }
+
+    /**
+     * Merges the lines queued straight after a PRIVMSG, NOTICE or JOIN into one multi target command, eg
+     * "PRIVMSG #a :hi" and "PRIVMSG #b :hi" into "PRIVMSG #a,#b :hi", up to the server's TARGMAX (or MAXTARGETS) and LINELEN.
+     * Messages merge when they have the same verb and text, JOINs when keys stay in line with their channels.
+     * Only lines next to each other in the lane are merged, so lines to the same target are never reordered
+     * @param line First line, already taken from the lane
+     * @param lane Lane it was taken from
+     * @return Line to send
+     */
+    private String Merge(String line, ConcurrentLinkedQueue<PendingLine> lane)
+    {
+        int verbEnd = line.indexOf(' ');
+        boolean join = verbEnd == 4; //JOIN, otherwise PRIVMSG or NOTICE
+        int targetsEnd = line.indexOf(' ', verbEnd + 1);
+        if(targetsEnd == -1) targetsEnd = line.length();
+        String rest = line.substring(targetsEnd); //" :text" for messages, " keys" or nothing for JOIN
+        if(targetsEnd == verbEnd + 1 || (!join && !rest.startsWith(" :")) || (join && line.startsWith("JOIN 0")))
+            return line; //Malformed, or JOIN 0 which parts every channel
+        ISupport support = context.isupport;
+        int maxTargets = support.GetTargetLimit(line.substring(0, verbEnd));
+        int maxLength = Math.min(support.GetLineLength(), writeBuffer.remaining()) - 2;
+        int targets = CountTargets(line, verbEnd + 1, targetsEnd);
+        boolean keyed = join && !rest.isEmpty() && CountTargets(rest, 1, rest.length()) == targets; //Every channel so far has a key. Keys apply to the first channels, so a keyed JOIN can only follow these
+        merged.setLength(0);
+        merged.append(line, 0, targetsEnd);
+        StringBuilder keys = join && !rest.isEmpty() ? new StringBuilder(rest) : null;
+        PendingLine next;
+        while(targets < maxTargets && (next = lane.peek()) != null)
+        {
+            String other = next.line;
+            int otherEnd = other.indexOf(' ', verbEnd + 1);
+            if(otherEnd == -1) otherEnd = other.length();
+            if(!other.regionMatches(0, line, 0, verbEnd + 1) || otherEnd == verbEnd + 1)
+                break; //Different verb
+            String otherRest = other.substring(otherEnd);
+            boolean otherKeyed = join && !otherRest.isEmpty();
+            if(join ? (otherKeyed && !keyed) || other.startsWith("JOIN 0") : !otherRest.equals(rest))
+                break; //Different text, or keys that wouldn't line up
+            int otherTargets = CountTargets(other, verbEnd + 1, otherEnd);
+            int length = merged.length() + 1 + (otherEnd - verbEnd - 1) + (keys != null ? keys.length() + (otherKeyed ? otherRest.length() : 0) : rest.length());
+            if(targets + otherTargets > maxTargets || length > maxLength || ContainsTarget(other, verbEnd + 1, otherEnd))
+                break;
+            merged.append(',').append(other, verbEnd + 1, otherEnd);
+            if(keys != null && otherKeyed)
+                keys.append(',').append(otherRest, 1, otherRest.length());
+            keyed = otherKeyed && CountTargets(otherRest, 1, otherRest.length()) == otherTargets;
+            targets += otherTargets;
+            lane.poll();
+            queuedLines.decrementAndGet();
+            queuedBytes.addAndGet(-(other.length() + 2));
+            linesMerged.incrementAndGet();
+            if(next.sent != null)
+                handlersInWrite.add(next);
+        }
+        if(merged.length() == targetsEnd) //Nothing merged
+            return line;
+        merged.append(keys != null ? keys : rest);
+        return merged.toString();
+    }
+
+    private static int CountTargets(String line, int start, int end)
+    {
+        int count = 1;
+        for(int i = start; i < end; i++)
+        {
+            if(line.charAt(i) == ',')
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return If any target of a line is already in the multi target line being built, a repeat would be sent twice to it
+     */
+    private boolean ContainsTarget(String line, int start, int end)
+    {
+        ISupport support = context.isupport; //Compared with the server's case mapping, in place
+        int builtStart = merged.indexOf(" ") + 1;
+        int builtEnd = merged.indexOf(" ", builtStart);
+        if(builtEnd == -1) builtEnd = merged.length();
+        for(int i = start; i < end; )
+        {
+            int comma = line.indexOf(',', i);
+            if(comma == -1 || comma > end) comma = end;
+            for(int j = builtStart; j < builtEnd; )
+            {
+                int existingEnd = merged.indexOf(",", j);
+                if(existingEnd == -1 || existingEnd > builtEnd) existingEnd = builtEnd;
+                if(support.Equal(line, i, comma, merged, j, existingEnd))
+                    return true;
+                j = existingEnd + 1;
+            }
+            i = comma + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Writes a line to the write buffer as ASCII followed by CR/LF. Lines too long for the buffer are cut short.
+     */
+    private void Encode(String line)
+    {
+        int length = Math.min(line.length(), writeBuffer.remaining() - 2);
+        for(int i = 0; i < length; i++)
+        {
+            char c = line.charAt(i);
+            writeBuffer.put(c < 128 ? (byte) c : (byte) '?'); //Same substitution as the US_ASCII encoder
+        }
+        writeBuffer.put((byte) '\r');
+        writeBuffer.put((byte) '\n');
+    }
+
+    /**
+     * Writes the write buffer to the socket. The transport continues until it is fully written.
+     */
+    private void Write()
+    {
+        Transport current = channel;
+        if(current == null || !current.IsOpen())
+        {
+            for(PendingLine line : handlersInWrite)
+                line.sent.failed(new ClosedChannelException(), line.line);
+            writing.set(false);
+            return;
+        }
+        try {
+            WriteTo(current);
+        }
+        catch (RuntimeException ex) //Thrown by the transport on this thread rather than reported to the handler
+        {
+            for(PendingLine line : handlersInWrite)
+                line.sent.failed(ex, line.line);
+            handlersInWrite.clear();
+            writing.set(false);
+            context.WriteFailed(ex);
+        }
+    }
+
+    /**
+     * Starts writing the write buffer to a socket, the handler ignores the result if the socket has been replaced by then
+     */
+    private void WriteTo(Transport current)
+    {
+        current.Write(writeBuffer, new CompletionHandler<Integer, Object>() {
+            @Override
+            public void completed(Integer result, Object attachment) {
+                PendingLine[] written;
+                synchronized (writeLock)
+                {
+                    if(current != channel) return; //Socket was replaced, its lines were already failed by Reset
+                    long latency = System.nanoTime() - oldestInWrite;
+                    writes.incrementAndGet();
+                    linesWritten.addAndGet(linesInWrite);
+                    totalLatency.addAndGet(latency);
+                    maxLatency.accumulateAndGet(latency, Math::max);
+                    written = handlersInWrite.isEmpty() ? null : handlersInWrite.toArray(new PendingLine[0]); //Taken before the next write reuses the list
+                    writing.set(false);
+                }
+                if(written != null)
+                {
+                    for(PendingLine line : written)
+                        line.sent.completed(null, line.line);
+                }
+                Drain(); //Send anything queued during the write
+            }
+
+            @Override
+            public void failed(Throwable exc, Object attachment) {
+                PendingLine[] lost;
+                synchronized (writeLock)
+                {
+                    if(current != channel) return; //Old socket closed for a reconnect, not a failure of the current one
+                    lost = handlersInWrite.toArray(new PendingLine[0]);
+                    writing.set(false);
+                }
+                for(PendingLine line : lost)
+                    line.sent.failed(exc, line.line);
+                context.WriteFailed(exc);
+            }
+        });
+    }
+}
@@ -0,0 +1,168 @@
+/* Render Queue class to collect chat lines from any thread and write them to the chat tabs in batches on the Swing event thread.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RenderQueue {
+    public static final int DEFAULT_MAX_BATCH = 500; //Default max number of lines written per flush
+    public static final int DEFAULT_MAX_LATENCY = 16; //Default max time in milliseconds a line waits before being written, about one frame
+
+    /**
+     * A line, or a block of lines that must be written together, waiting to be written to a tab
+     */
+    private static class PendingLine
+    {
+        final TargetRegistry.Target tab; //Key of the tab to write to
+        final ChatLine line; //Line to write, null for a block
+        final List<ChatLine> block; //Lines to write in the same insert, null for a single line
+
+        PendingLine(TargetRegistry.Target tab, ChatLine line, List<ChatLine> block)
+        {
+            this.tab = tab;
+            this.line = line;
+            this.block = block;
+        }
+    }
+
+    private final ChatWindow chatWindow; //Window that owns the tabs being written to
+    private final ConcurrentLinkedQueue<PendingLine> pending = new ConcurrentLinkedQueue<>(); //Lines waiting to be written
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false); //If a flush is already scheduled on the event thread
+    private final Timer flushTimer; //Swing timer that runs the flush on the event thread
+    private volatile int maxBatch; //Max number of lines written per flush
+    private volatile Thread groupThread; //Thread whose lines are being grouped, null if none
+    private LinkedHashMap<TargetRegistry.Target, ArrayList<ChatLine>> group; //Lines of the open group for each tab, only used by the group thread
+
+    public RenderQueue(ChatWindow chatWindow)
+    {
+        this(chatWindow, DEFAULT_MAX_BATCH, DEFAULT_MAX_LATENCY);
+    }
+
+    /**
+     * @param chatWindow Window that owns the tabs being written to
+     * @param maxBatch Max number of lines written per flush, any remaining lines are written on the next flush
+     * @param maxLatency Max time in milliseconds between a line being added and the flush that writes it
+     */
+    public RenderQueue(ChatWindow chatWindow, int maxBatch, int maxLatency)
+    {
+        this.chatWindow = chatWindow;
+        this.maxBatch = maxBatch;
+        flushTimer = new Timer(maxLatency, e -> Flush());
+        flushTimer.setRepeats(false); //Only run when there are lines waiting
+    }
+
+    public void SetMaxBatch(int maxBatch)
+    {
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    public void SetMaxLatency(int maxLatency)
+    {
+        flushTimer.setInitialDelay(Math.max(0, maxLatency));
+    }
+
+    /**
+     * Queues a line to be written to a tab. Safe to call from any thread.
+     * The tab is created when the line is written if it does not exist yet.
+     * @param tabName Name of the tab to write to
+     * @param line Line to write
+     */
+    public void Add(String tabName, ChatLine line)
+    {
+        TargetRegistry.Target tab = chatWindow.TabKey(tabName);
+        if(groupThread == Thread.currentThread())
+            group.computeIfAbsent(tab, k -> new ArrayList<>()).add(line);
+        else
+            Queue(new PendingLine(tab, line, null));
+    }
+
+    /**
+     * Queues lines that are always written to a tab in the same insert, even if that goes over the max batch. Safe to call from any thread.
+     * @param tabName Name of the tab to write to
+     * @param lines Lines to write
+     */
+    public void AddBlock(String tabName, List<ChatLine> lines)
+    {
+        if(lines.isEmpty()) return;
+        TargetRegistry.Target tab = chatWindow.TabKey(tabName);
+        if(groupThread == Thread.currentThread())
+            group.computeIfAbsent(tab, k -> new ArrayList<>()).addAll(lines);
+        else
+            Queue(new PendingLine(tab, null, lines));
+    }
+
+    /**
+     * Starts grouping the lines the calling thread adds, until EndGroup. Lines from other threads are queued as usual
+     */
+    public void BeginGroup()
+    {
+        group = new LinkedHashMap<>();
+        groupThread = Thread.currentThread();
+    }
+
+    /**
+     * Queues the grouped lines as one block per tab, so each tab gets them in a single insert
+     */
+    public void EndGroup()
+    {
+        if(groupThread != Thread.currentThread()) return;
+        groupThread = null;
+        for(Map.Entry<TargetRegistry.Target, ArrayList<ChatLine>> lines : group.entrySet())
+            Queue(new PendingLine(lines.getKey(), null, lines.getValue()));
+        group = null;
+    }
+
+    private void Queue(PendingLine pendingLine)
+    {
+        pending.add(pendingLine);
+        if(flushScheduled.compareAndSet(false, true)) //Only the first line since the last flush schedules a new one
+            SwingUtilities.invokeLater(flushTimer::restart);
+    }
+
+    /**
+     * Writes up to the max batch of queued lines, grouped so that each tab gets one document insert.
+     * Runs on the event thread.
+     */
+    private void Flush()
+    {
+        Map<TargetRegistry.Target, ArrayList<ChatLine>> batches = new LinkedHashMap<>(); //Lines for each tab, in the order the tabs were first written to
+        PendingLine pendingLine;
+        for(int count = 0; count < maxBatch && (pendingLine = pending.poll()) != null; )
+        {
+            ArrayList<ChatLine> batch = batches.computeIfAbsent(pendingLine.tab, k -> new ArrayList<>());
+            if(pendingLine.block != null)
+            {
+                batch.addAll(pendingLine.block);
+                count += pendingLine.block.size();
+            }
+            else
+            {
+                batch.add(pendingLine.line);
+                count++;
+            }
+        }
+
+        for(Map.Entry<TargetRegistry.Target, ArrayList<ChatLine>> batch : batches.entrySet())
+        {
+            ChatTab tab = chatWindow.CreateTab(batch.getKey(), false, ChatTab.DefaultViewType); //Get or create the tab
+            tab.Append(batch.getValue()); //Write all lines for this tab in one update
+        }
+
+        if(!pending.isEmpty()) //More than one batch was waiting, write the rest on the next tick
+            flushTimer.restart();
+        else
+        {
+            flushScheduled.set(false);
+            if(!pending.isEmpty() && flushScheduled.compareAndSet(false, true)) //A line was added while finishing this flush
+                flushTimer.restart();
+        }
+    }
+}
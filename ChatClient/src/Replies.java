@@ -202,6 +202,10 @@ public class Replies{
     No description available in RFC */
     public static final int IRC_RPL_WHOISCHANNELS = 319;
 
+    /** 321 Channel :Users  Name
+    Marks the start of the replies to a LIST command. Obsolete in RFC 2812 but still sent by most servers. */
+    public static final int IRC_RPL_LISTSTART = 321;
+
     /** 322 <channel> <# visible> :<topic>
     No description available in RFC */
     public static final int IRC_RPL_LIST = 322;
@@ -527,6 +531,10 @@ public class Replies{
     No description available in RFC */
     public static final int IRC_ERR_BANLISTFULL = 478;
 
+    /** 479 <channel> :Illegal channel name
+    Not in RFC. Returned by hybrid/ratbox based servers when a JOIN is attempted on a channel name containing illegal characters. */
+    public static final int IRC_ERR_BADCHANNAME = 479;
+
     /** 481 :Permission Denied- You're not an IRC operator
     Any command requiring operator privileges to operate MUST return this error to indicate the attempt was unsuccessful. */
     public static final int IRC_ERR_NOPRIVILEGES = 481;
@@ -559,4 +567,16 @@ public class Replies{
     Error sent to any user trying to view or change the user mode for a user other than themselves. */
     public static final int IRC_ERR_USERSDONTMATCH = 502;
 
+    /** 704 <subject> :<first line of help section>
+    Marks the start of the replies to a HELP command. Not in RFC 2812, sent by most current servers. */
+    public static final int IRC_RPL_HELPSTART = 704;
+
+    /** 705 <subject> :<line of help text>
+    One line of the replies to a HELP command. */
+    public static final int IRC_RPL_HELPTXT = 705;
+
+    /** 706 <subject> :<last line of help text>
+    Marks the end of the replies to a HELP command. */
+    public static final int IRC_RPL_ENDOFHELP = 706;
+
 }
@@ -0,0 +1,130 @@
+/* Reply Dispatcher class to route parsed server messages to their handlers using lookup tables.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.util.Locale;
+
+public class ReplyDispatcher {
+    /**
+     * Handler for a numeric reply or a command verb
+     */
+    public interface ReplyHandler
+    {
+        void Handle(IrcMessage message);
+    }
+
+    private final ReplyHandler[] numericHandlers = new ReplyHandler[1000]; //Handlers indexed directly by 3 digit numeric
+    private String[] verbKeys = new String[32]; //Open addressing table of upper case, interned verbs
+    private ReplyHandler[] verbHandlers = new ReplyHandler[32]; //Handlers matching verbKeys
+    private int verbCount = 0; //Number of registered verbs
+    private final ReplyHandler defaultHandler; //Handler for anything that has not been registered
+
+    /**
+     * @param defaultHandler Handler to invoke for any numeric or verb without a registered handler
+     */
+    public ReplyDispatcher(ReplyHandler defaultHandler)
+    {
+        this.defaultHandler = defaultHandler;
+    }
+
+    /**
+     * Register a handler for a numeric reply. Use the constants in Replies
+     * @param numeric Numeric reply code
+     * @param handler Handler to invoke when the numeric is received
+     */
+    public void Register(int numeric, ReplyHandler handler)
+    {
+        if(numeric < 0 || numeric >= numericHandlers.length)
+            throw new IllegalArgumentException("Numeric replies must be 3 digits: " + numeric);
+        numericHandlers[numeric] = handler;
+    }
+
+    /**
+     * Register a handler for a command verb eg "PRIVMSG". Verbs are matched ignoring case
+     * @param verb Command verb
+     * @param handler Handler to invoke when the verb is received
+     */
+    public void Register(String verb, ReplyHandler handler)
+    {
+        verb = verb.toUpperCase(Locale.ROOT).intern();
+        if((verbCount + 1) * 2 > verbKeys.length) //Keep the table at most half full so probes stay short
+            GrowVerbTable();
+        int slot = FindSlot(verbKeys, verb);
+        if(verbKeys[slot] == null)
+            verbCount++;
+        verbKeys[slot] = verb;
+        verbHandlers[slot] = handler;
+    }
+
+    /**
+     * Invokes the handler registered for the message's numeric or verb, or the default handler if there is none.
+     * Lookups do not create any objects.
+     * @param message Parsed message
+     */
+    public void Dispatch(IrcMessage message)
+    {
+        ReplyHandler handler;
+        int numeric = message.Numeric();
+        if(numeric != -1) //Numeric replies are a direct array index
+            handler = numericHandlers[numeric];
+        else
+            handler = LookupVerb(message);
+        (handler == null ? defaultHandler : handler).Handle(message);
+    }
+
+    /**
+     * Finds the handler for the message's command by hashing the command directly from the raw line
+     */
+    private ReplyHandler LookupVerb(IrcMessage message)
+    {
+        String line = message.GetLine();
+        int start = message.CommandStart();
+        int length = message.CommandEnd() - start;
+        int hash = 0;
+        for(int i = start; i < start + length; i++)
+            hash = 31 * hash + Character.toUpperCase(line.charAt(i));
+
+        int mask = verbKeys.length - 1;
+        for(int slot = Spread(hash) & mask; verbKeys[slot] != null; slot = (slot + 1) & mask) //Linear probe
+        {
+            String key = verbKeys[slot];
+            if(key.length() == length && key.regionMatches(true, 0, line, start, length))
+                return verbHandlers[slot];
+        }
+        return null;
+    }
+
+    /**
+     * Finds the slot a verb is stored in, or the empty slot it should be stored in
+     */
+    private static int FindSlot(String[] keys, String verb)
+    {
+        int mask = keys.length - 1;
+        int slot = Spread(verb.hashCode()) & mask; //Verbs are upper case so String.hashCode matches the lookup hash
+        while(keys[slot] != null && !keys[slot].equals(verb))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private static int Spread(int hash)
+    {
+        return hash ^ (hash >>> 16);
+    }
+
+    private void GrowVerbTable()
+    {
+        String[] oldKeys = verbKeys;
+        ReplyHandler[] oldHandlers = verbHandlers;
+        verbKeys = new String[oldKeys.length * 2];
+        verbHandlers = new ReplyHandler[oldKeys.length * 2];
+        for(int i = 0; i < oldKeys.length; i++)
+        {
+            if(oldKeys[i] == null) continue;
+            int slot = FindSlot(verbKeys, oldKeys[i]);
+            verbKeys[slot] = oldKeys[i];
+            verbHandlers[slot] = oldHandlers[i];
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/* Request Tracker class to match server replies to the commands that asked for them, so any number of requests can be in flight at once.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request is answered by the reply that ends it, eg 366 for NAMES or our own JOIN, or by an error numeric.
+ * Replies are matched by command and target, the oldest request first, or by label when the server has labeled-response.
+ * Requests are added from any thread and matched on the connection's read thread, so every table is guarded by this object.
+ * Callbacks are never run while the lock is held.
+ */
+public class RequestTracker {
+    public static final int TIMEOUT = 30; //Seconds to wait for the reply to a request
+    public static final int LOGIN_TIMEOUT = 90; //Seconds to wait for registration, servers may look up ident and host first
+
+    /**
+     * Replies that end one kind of request
+     */
+    private static class Rule
+    {
+        final String[] verbs; //Commands that end the request successfully, eg JOIN
+        final int[] numerics; //Numerics that end the request successfully
+        final int[] errors; //Numerics that fail the request
+        final boolean targeted; //If replies name the request's target, otherwise requests are answered in the order they were sent
+
+        Rule(String[] verbs, int[] numerics, int[] errors, boolean targeted)
+        {
+            this.verbs = verbs;
+            this.numerics = numerics;
+            this.errors = errors;
+            this.targeted = targeted;
+        }
+    }
+
+    private static final HashMap<String, Rule> RULES = new HashMap<>(); //Rule for each command that can be tracked, by verb
+    private static final String LIST_QUERY_MODES = "beI"; //List modes whose queries end with a numeric MODE is tracked for
+    static
+    {
+        RULES.put("NICK", new Rule(new String[0], new int[] { Replies.IRC_RPL_WELCOME },
+                new int[] { Replies.IRC_ERR_NICKNAMEINUSE, Replies.IRC_ERR_ERRONEUSNICKNAME, Replies.IRC_ERR_NICKCOLLISION, Replies.IRC_ERR_NONICKNAMEGIVEN }, false)); //Registration
+        RULES.put("JOIN", new Rule(new String[] { "JOIN" }, new int[0],
+                new int[] { Replies.IRC_ERR_NOSUCHCHANNEL, Replies.IRC_ERR_TOOMANYCHANNELS, Replies.IRC_ERR_CHANNELISFULL, Replies.IRC_ERR_INVITEONLYCHAN, Replies.IRC_ERR_BANNEDFROMCHAN,
+                        Replies.IRC_ERR_BADCHANNELKEY, Replies.IRC_ERR_BADCHANMASK, Replies.IRC_ERR_NOCHANMODES, Replies.IRC_ERR_BADCHANNAME }, true));
+        RULES.put("WHOIS", new Rule(new String[0], new int[] { Replies.IRC_RPL_ENDOFWHOIS },
+                new int[] { Replies.IRC_ERR_NOSUCHNICK, Replies.IRC_ERR_NOSUCHSERVER }, true));
+        RULES.put("NAMES", new Rule(new String[0], new int[] { Replies.IRC_RPL_ENDOFNAMES },
+                new int[] { Replies.IRC_ERR_NOSUCHCHANNEL }, true));
+        RULES.put("MODE", new Rule(new String[] { "MODE" }, new int[] { Replies.IRC_RPL_CHANNELMODEIS, Replies.IRC_RPL_ENDOFBANLIST, Replies.IRC_RPL_ENDOFEXCEPTLIST, Replies.IRC_RPL_ENDOFINVITELIST },
+                new int[] { Replies.IRC_ERR_NOSUCHCHANNEL, Replies.IRC_ERR_NOTONCHANNEL, Replies.IRC_ERR_UNKNOWNMODE, Replies.IRC_ERR_NOCHANMODES, Replies.IRC_ERR_CHANOPRIVSNEEDED }, true));
+        RULES.put("LIST", new Rule(new String[0], new int[] { Replies.IRC_RPL_LISTEND }, new int[0], false));
+    }
+
+    /**
+     * A command waiting for its reply
+     */
+    public static final class Request
+    {
+        final String command; //Verb of the command, key of its rule
+        final Rule rule;
+        final TargetRegistry.Target target; //Channel or nick replies name, null if the rule isn't targeted
+        final String label; //Label sent with the command, null if replies are matched by target
+        final CompletionHandler<String, ServerConnection> callback;
+        ScheduledFuture<?> timeout; //Fails the request if no reply comes in time
+        String reply; //Line that answered the request, once it has been matched
+        Throwable error; //Why the request failed, null if it succeeded
+
+        private Request(String command, Rule rule, TargetRegistry.Target target, String label, CompletionHandler<String, ServerConnection> callback)
+        {
+            this.command = command;
+            this.rule = rule;
+            this.target = target;
+            this.label = label;
+            this.callback = callback;
+        }
+
+        /**
+         * Runs the callback of a request that has been matched. Called after the reply has been handled, so eg a joined channel is in the roster
+         */
+        public void Finish(ServerConnection connection)
+        {
+            if(error == null)
+                callback.completed(reply, connection);
+            else
+                callback.failed(error, connection);
+        }
+    }
+
+    private final ServerConnection serverConnection;
+    private final HashMap<TargetRegistry.Target, ArrayDeque<Request>> byTarget = new HashMap<>(); //Targeted requests, oldest first for each target
+    private final ArrayDeque<Request> untargeted = new ArrayDeque<>(); //Requests answered in order, eg registration and LIST
+    private final HashMap<String, Request> byLabel = new HashMap<>(); //Labeled requests whose reply hasn't started
+    private final HashMap<String, Request> byBatch = new HashMap<>(); //Labeled requests answered with a batch, by batch reference
+    private int pending = 0; //Requests in any of the tables, checked before a line is looked at
+    private int nextLabel = 0;
+
+    public RequestTracker(ServerConnection serverConnection)
+    {
+        this.serverConnection = serverConnection;
+    }
+
+    /**
+     * @param words Command split at spaces
+     * @return If a command always gets a reply that can be waited for. MODE is only tracked for channel mode and ban, exception
+     *         and invite list queries, user modes are answered without naming the target and unchanged modes get no reply at all
+     */
+    public boolean IsTracked(String[] words)
+    {
+        String command = words[0].toUpperCase();
+        if(!RULES.containsKey(command)) return false;
+        if(!command.equals("MODE")) return true;
+        if(words.length < 2 || !serverConnection.isupport.IsChannel(words[1])) return false; //User mode
+        if(words.length == 2) return true; //Channel mode query
+        if(words.length > 3) return false; //Change with parameters
+        String modes = words[2].startsWith("+") ? words[2].substring(1) : words[2];
+        if(modes.isEmpty()) return false;
+        for(int i = 0; i < modes.length(); i++)
+        {
+            char mode = modes.charAt(i);
+            if(LIST_QUERY_MODES.indexOf(mode) == -1 || serverConnection.isupport.GetChannelModes(0).indexOf(mode) == -1)
+                return false; //A change, or a list whose end we don't know
+        }
+        return true;
+    }
+
+    /**
+     * @param words Command split at spaces
+     * @return Channel or nick replies to the command name, null if it has none
+     */
+    public static String TargetOf(String[] words)
+    {
+        if(words[0].equalsIgnoreCase("WHOIS") && words.length > 2) //WHOIS server nick
+            return words[2];
+        return words.length > 1 ? words[1] : null;
+    }
+
+    /**
+     * Starts tracking a command that is about to be sent
+     * @param command Verb of the command, one with a rule
+     * @param target Channel or nick the command is for, ignored if replies don't name one
+     * @param labeled If the command is sent with a label. Labeled commands can't be merged with others
+     * @param timeout Seconds to wait for the reply before failing with a RequestTimeoutException
+     * @param callback Completed with the raw line that answered the request, or failed with the error it caused. Called on the read or timer thread
+     * @return Label to send with the command, null if it is matched by target
+     */
+    public String Add(String command, String target, boolean labeled, int timeout, CompletionHandler<String, ServerConnection> callback)
+    {
+        command = command.toUpperCase();
+        Rule rule = RULES.get(command);
+        Request request;
+        synchronized (this)
+        {
+            request = new Request(command, rule, rule.targeted && target != null ? serverConnection.targets.Intern(target) : null, labeled ? Integer.toString(++nextLabel, 36) : null, callback);
+            if(request.label != null)
+                byLabel.put(request.label, request);
+            else if(request.target != null)
+                byTarget.computeIfAbsent(request.target, k -> new ArrayDeque<>()).add(request);
+            else
+                untargeted.add(request);
+            pending++;
+            request.timeout = ConnectionManager.GetScheduler().schedule(() -> { //Set under the lock, so a reply matched at once still cancels it
+                if(Remove(request)) //Not answered yet
+                    callback.failed(new CustomExceptions.RequestTimeoutException("No reply to " + request.command + " after " + timeout + " seconds"), serverConnection);
+            }, timeout, TimeUnit.SECONDS);
+        }
+        return request.label;
+    }
+
+    /**
+     * Looks for the request a line answers. Called for every line as it arrives, before it is handled
+     * @param message Parsed line
+     * @return Request the line ends, with its result set, to be finished once the line is handled. Null if the line ends none
+     */
+    public synchronized Request Match(IrcMessage message)
+    {
+        if(pending == 0) return null;
+        Request request = null;
+        if(message.HasTags())
+        {
+            if(!byLabel.isEmpty() && message.HasTag("label"))
+            {
+                request = byLabel.remove(message.TagValue("label"));
+                if(request != null && message.CommandIs("BATCH") && message.Param(0).startsWith("+")) //Reply is a batch, it ends with the batch
+                {
+                    byBatch.put(message.Param(0).substring(1), request);
+                    return null;
+                }
+            }
+            else if(!byBatch.isEmpty() && message.HasTag("batch"))
+            {
+                request = byBatch.get(message.TagValue("batch"));
+                if(request != null && !IsError(request.rule, message))
+                    return null; //Part of the reply, eg a WHOIS line
+                byBatch.remove(message.TagValue("batch"));
+            }
+        }
+        if(request == null && !byBatch.isEmpty() && message.CommandIs("BATCH") && message.Param(0).startsWith("-"))
+            request = byBatch.remove(message.Param(0).substring(1)); //End of a labeled reply
+        if(request == null)
+            request = MatchUnlabeled(message);
+        if(request == null) return null;
+        pending--;
+        request.reply = message.GetLine();
+        if(IsError(request.rule, message))
+            request.error = Error(request.command, message);
+        if(request.timeout != null)
+            request.timeout.cancel(false);
+        return request;
+    }
+
+    /**
+     * Matches a reply without a label to the oldest request of a command it ends, by the target it names
+     */
+    private Request MatchUnlabeled(IrcMessage message)
+    {
+        int numeric = message.Numeric();
+        for(Request request : untargeted)
+        {
+            if(Ends(request.rule, message, numeric))
+            {
+                untargeted.remove(request);
+                return request;
+            }
+        }
+        if(byTarget.isEmpty()) return null;
+        int param = numeric == -1 ? 0 : 1; //Numerics name our nick first
+        if(message.ParamCount() <= param) return null;
+        if(numeric == -1 && !message.NickIs(serverConnection.nickName)) return null; //Only our own JOIN or MODE ends a request
+        TargetRegistry.Target target = serverConnection.targets.Get(message.GetLine(), message.ParamStart(param), message.ParamEnd(param)); //No allocation for lines naming nothing we asked about
+        ArrayDeque<Request> requests = target == null ? null : byTarget.get(target);
+        if(requests == null) return null;
+        for(Iterator<Request> it = requests.iterator(); it.hasNext(); )
+        {
+            Request request = it.next();
+            if(Ends(request.rule, message, numeric))
+            {
+                it.remove();
+                if(requests.isEmpty())
+                    byTarget.remove(target);
+                return request;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return If a line ends a request under its rule, successfully or not
+     */
+    private static boolean Ends(Rule rule, IrcMessage message, int numeric)
+    {
+        if(numeric == -1)
+        {
+            for(String verb : rule.verbs)
+            {
+                if(message.CommandIs(verb))
+                    return true;
+            }
+            return false;
+        }
+        for(int success : rule.numerics)
+        {
+            if(numeric == success)
+                return true;
+        }
+        return IsError(rule, message);
+    }
+
+    private static boolean IsError(Rule rule, IrcMessage message)
+    {
+        int numeric = message.Numeric();
+        if(numeric == -1) return message.CommandIs("FAIL");
+        for(int error : rule.errors)
+        {
+            if(numeric == error)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds the exception for an error reply, one the front end already knows where there is one
+     */
+    private static Exception Error(String command, IrcMessage message)
+    {
+        String text = message.ParamCount() > 0 ? message.Param(message.ParamCount() - 1) : message.Command();
+        switch (message.Numeric())
+        {
+            case Replies.IRC_ERR_NICKNAMEINUSE:
+            case Replies.IRC_ERR_NICKCOLLISION:
+                return new CustomExceptions.NameTakenException("The selected username or nickname is already in use!");
+            case Replies.IRC_ERR_ERRONEUSNICKNAME:
+            case Replies.IRC_ERR_NONICKNAMEGIVEN:
+                return new CustomExceptions.BadNameException("The selected username or nickname was rejected by the server!");
+            case Replies.IRC_ERR_CHANNELISFULL:
+                return new CustomExceptions.ChannelFullException("The selected channel is full!");
+            case Replies.IRC_ERR_BADCHANNAME:
+            case Replies.IRC_ERR_BADCHANMASK:
+                return new CustomExceptions.IllegalChannelNameException("The selected channel name is invalid!");
+            case Replies.IRC_ERR_TOOMANYCHANNELS:
+                return new CustomExceptions.ChannelLimitException(text);
+            default:
+                return new CustomExceptions.RequestFailedException(command + " failed: " + text);
+        }
+    }
+
+    /**
+     * Stops tracking a request
+     * @return False if it had already been answered or removed
+     */
+    private synchronized boolean Remove(Request request)
+    {
+        boolean removed;
+        if(request.label != null)
+            removed = byLabel.remove(request.label, request) || byBatch.values().remove(request);
+        else if(request.target != null)
+        {
+            ArrayDeque<Request> requests = byTarget.get(request.target);
+            removed = requests != null && requests.remove(request);
+            if(requests != null && requests.isEmpty())
+                byTarget.remove(request.target);
+        }
+        else
+            removed = untargeted.remove(request);
+        if(removed)
+            pending--;
+        return removed;
+    }
+
+    /**
+     * Fails every request, eg when the connection is lost
+     * @param error Passed to each request's callback
+     */
+    public void FailAll(Throwable error)
+    {
+        ArrayDeque<Request> failed = new ArrayDeque<>();
+        synchronized (this)
+        {
+            for(ArrayDeque<Request> requests : byTarget.values())
+                failed.addAll(requests);
+            failed.addAll(untargeted);
+            failed.addAll(byLabel.values());
+            failed.addAll(byBatch.values());
+            byTarget.clear();
+            untargeted.clear();
+            byLabel.clear();
+            byBatch.clear();
+            pending = 0;
+        }
+        for(Request request : failed)
+        {
+            if(request.timeout != null)
+                request.timeout.cancel(false);
+            request.callback.failed(error, serverConnection);
+        }
+    }
+
+    /**
+     * @return Number of requests waiting for a reply
+     */
+    public synchronized int GetPending()
+    {
+        return pending;
+    }
+}
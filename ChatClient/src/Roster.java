@@ -0,0 +1,331 @@
+/* Roster class to track the members of every joined channel, built from NAMES and kept up to date from JOIN, PART, QUIT, KICK, NICK and MODE.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Every user is stored once and shared by the channels it is in, and knows which of our channels it is in,
+ * so a QUIT or NICK only touches the channels that user shares with us. Updates come from the connection's read thread,
+ * all methods are synchronized so the roster can also be read from the event thread.
+ */
+public class Roster {
+    public static final String DEFAULT_PREFIX_MODES = "qaohv"; //Channel modes that give a member a prefix, highest first
+    public static final String DEFAULT_PREFIX_SYMBOLS = "~&@%+"; //Prefix shown for each of those modes
+
+    private final TargetRegistry targets; //Canonical keys of the connection's names
+    private final HashMap<TargetRegistry.Target, User> users = new HashMap<>(); //Users sharing a channel with us by nickname key
+    private final HashMap<TargetRegistry.Target, Channel> channels = new HashMap<>(); //Joined channels by name key
+    private String prefixModes = DEFAULT_PREFIX_MODES;
+    private String prefixSymbols = DEFAULT_PREFIX_SYMBOLS;
+    private String listModes = "beI"; //Channel modes that always take a parameter and are lists
+    private String parameterModes = "k"; //Channel modes that always take a parameter
+    private String setParameterModes = "l"; //Channel modes that only take a parameter when set
+
+    /**
+     * @param targets Key registry of the connection, names are looked up through it so they follow the server's case mapping
+     */
+    public Roster(TargetRegistry targets)
+    {
+        this.targets = targets;
+    }
+
+    /**
+     * Sets the member prefixes the server uses, from its PREFIX setting
+     * @param modes Mode letters eg "ov"
+     * @param symbols Symbol for each mode eg "@+"
+     */
+    public synchronized void SetPrefixes(String modes, String symbols)
+    {
+        prefixModes = modes;
+        prefixSymbols = symbols;
+    }
+
+    /**
+     * Sets which channel modes take parameters, from the server's CHANMODES setting
+     */
+    public synchronized void SetChannelModes(String lists, String parameters, String setParameters)
+    {
+        listModes = lists;
+        parameterModes = parameters;
+        setParameterModes = setParameters;
+    }
+
+    /**
+     * Adds the names of one 353 reply to a channel. The first reply after a completed list replaces it
+     * @param channelName Channel the names are for
+     * @param names Space separated names with prefixes eg "@alice +bob carol"
+     */
+    public synchronized void NamesReply(String channelName, String names)
+    {
+        Channel channel = channels.get(targets.Get(channelName));
+        if(channel == null) return; //NAMES for a channel we are not in
+        if(channel.namesComplete) //Refreshed list, start again
+        {
+            for(User user : channel.Members())
+                RemoveMember(channel, user);
+            channel.namesComplete = false;
+        }
+        int start = 0;
+        while(start < names.length())
+        {
+            int end = names.indexOf(' ', start);
+            if(end == -1) end = names.length();
+            if(end > start)
+                AddName(channel, names, start, end);
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Marks the NAMES list of a channel as complete
+     */
+    public synchronized void EndOfNames(String channelName)
+    {
+        Channel channel = channels.get(targets.Get(channelName));
+        if(channel != null)
+            channel.namesComplete = true;
+    }
+
+    /**
+     * A user joined a channel. If it was us, the channel is added to the roster
+     */
+    public synchronized void Joined(String channelName, String nick, String userName, String host, boolean self)
+    {
+        TargetRegistry.Target key = self ? targets.Intern(channelName) : targets.Get(channelName);
+        Channel channel = channels.get(key);
+        if(channel == null)
+        {
+            if(!self) return; //Channel we are not in
+            channel = new Channel(channelName, key);
+            channels.put(key, channel);
+        }
+        User user = GetOrCreateUser(nick);
+        if(userName != null && !userName.isEmpty()) //JOIN with a full nick!user@host prefix
+        {
+            user.userName = userName;
+            user.host = host;
+        }
+        AddMember(channel, user, (byte) 0);
+    }
+
+    /**
+     * A user left or was kicked from a channel. If it was us, the channel is removed from the roster
+     */
+    public synchronized void Parted(String channelName, String nick, boolean self)
+    {
+        Channel channel = channels.get(targets.Get(channelName));
+        if(channel == null) return;
+        if(self)
+        {
+            for(User user : channel.Members())
+                RemoveMember(channel, user);
+            channels.remove(channel.key);
+            return;
+        }
+        User user = users.get(targets.Get(nick));
+        if(user != null)
+            RemoveMember(channel, user);
+    }
+
+    /**
+     * A user quit, removing them from every channel they shared with us
+     */
+    public synchronized void Quit(String nick)
+    {
+        User user = users.get(targets.Get(nick));
+        if(user == null) return;
+        for(int i = user.channels.size() - 1; i >= 0; i--)
+            RemoveMember(user.channels.get(i), user);
+    }
+
+    /**
+     * A user changed nickname. Re-keys them in every channel they share with us
+     */
+    public synchronized void NickChanged(String oldNick, String newNick)
+    {
+        User user = users.remove(targets.Get(oldNick));
+        if(user == null) return;
+        ArrayList<Channel> shared = user.channels;
+        byte[] oldModes = new byte[shared.size()];
+        for(int i = 0; i < shared.size(); i++) //Remove under the old key
+        {
+            oldModes[i] = shared.get(i).ModesOf(user);
+            shared.get(i).Remove(user);
+        }
+        user.SetNick(newNick, targets.Intern(newNick));
+        for(int i = 0; i < shared.size(); i++) //Add back under the new key
+            shared.get(i).Put(user, oldModes[i]);
+        users.put(user.key, user);
+    }
+
+    /**
+     * Applies the prefix mode changes of a channel MODE, eg "+ov-v alice bob carol"
+     * @param channelName Channel the modes changed in
+     * @param message Parsed MODE message, the mode string is param 1 and its arguments follow
+     */
+    public synchronized void ChannelMode(String channelName, IrcMessage message)
+    {
+        Channel channel = channels.get(targets.Get(channelName));
+        if(channel == null || message.ParamCount() < 2) return;
+        String modeString = message.Param(1);
+        int argument = 2; //Next unused parameter
+        boolean set = true;
+        for(int i = 0; i < modeString.length(); i++)
+        {
+            char mode = modeString.charAt(i);
+            if(mode == '+' || mode == '-')
+            {
+                set = mode == '+';
+                continue;
+            }
+            int bit = prefixModes.indexOf(mode);
+            if(bit != -1) //Member prefix mode, argument is the nickname
+            {
+                if(argument >= message.ParamCount()) return;
+                User user = channel.Get(targets.Get(message.GetLine(), message.ParamStart(argument), message.ParamEnd(argument++)));
+                if(user != null)
+                    channel.SetMode(user, bit, set);
+            }
+            else if(listModes.indexOf(mode) != -1 || parameterModes.indexOf(mode) != -1 || (set && setParameterModes.indexOf(mode) != -1))
+                argument++; //Skip the argument of a mode the roster doesn't track
+        }
+    }
+
+    /**
+     * Rebuilds the member tables after the registry's case mapping changed, as key hashes changed with it
+     */
+    public synchronized void Rehash()
+    {
+        for(Channel channel : channels.values())
+            channel.Rehash();
+    }
+
+    /**
+     * Forgets every channel and user, eg when the connection is lost
+     */
+    public synchronized void Clear()
+    {
+        users.clear();
+        channels.clear();
+    }
+
+    /**
+     * @return Names of the joined channels
+     */
+    public synchronized ArrayList<String> GetChannels()
+    {
+        ArrayList<String> names = new ArrayList<>(channels.size());
+        for(Channel channel : channels.values())
+            names.add(channel.name);
+        return names;
+    }
+
+    /**
+     * @return If we are in the channel
+     */
+    public synchronized boolean InChannel(String channelName)
+    {
+        return channels.containsKey(targets.Get(channelName));
+    }
+
+    /**
+     * @return Number of members of a channel, 0 if not joined
+     */
+    public synchronized int GetMemberCount(String channelName)
+    {
+        Channel channel = channels.get(targets.Get(channelName));
+        return channel == null ? 0 : channel.Size();
+    }
+
+    /**
+     * @return Nicknames of the members of a channel with their highest prefix eg "@alice", empty if not joined
+     */
+    public synchronized ArrayList<String> GetMembers(String channelName)
+    {
+        ArrayList<String> names = new ArrayList<>();
+        Channel channel = channels.get(targets.Get(channelName));
+        if(channel == null) return names;
+        for(User user : channel.Members())
+        {
+            byte modes = channel.ModesOf(user);
+            int highest = modes == 0 ? -1 : Integer.numberOfTrailingZeros(modes); //Lowest bit is the highest prefix
+            names.add(highest == -1 || highest >= prefixSymbols.length() ? user.nick : prefixSymbols.charAt(highest) + user.nick);
+        }
+        return names;
+    }
+
+    /**
+     * @return A user sharing a channel with us, null if none
+     */
+    public synchronized User GetUser(String nick)
+    {
+        return users.get(targets.Get(nick));
+    }
+
+    /**
+     * Adds one name from a NAMES reply, which may have several prefixes (multi-prefix) and a user@host (userhost-in-names)
+     */
+    private void AddName(Channel channel, String names, int start, int end)
+    {
+        byte modes = 0;
+        int bit;
+        while(start < end && (bit = prefixSymbols.indexOf(names.charAt(start))) != -1)
+        {
+            modes |= 1 << bit;
+            start++;
+        }
+        int bang = names.indexOf('!', start);
+        int nickEnd = bang == -1 || bang > end ? end : bang;
+        if(nickEnd == start) return;
+        TargetRegistry.Target key = targets.Intern(names, start, nickEnd); //No nickname string is made for users we already have
+        User user = users.get(key);
+        if(user == null)
+        {
+            user = new User(InternPool.Intern(names, start, nickEnd), key);
+            users.put(key, user);
+        }
+        if(nickEnd < end) //nick!user@host
+        {
+            int at = names.indexOf('@', nickEnd);
+            if(at != -1 && at < end)
+            {
+                user.userName = InternPool.Intern(names, nickEnd + 1, at);
+                user.host = InternPool.Intern(names, at + 1, end);
+            }
+        }
+        AddMember(channel, user, modes);
+    }
+
+    private User GetOrCreateUser(String nick)
+    {
+        TargetRegistry.Target key = targets.Intern(nick);
+        User user = users.get(key);
+        if(user == null)
+        {
+            user = new User(nick, key);
+            users.put(key, user);
+        }
+        return user;
+    }
+
+    private void AddMember(Channel channel, User user, byte modes)
+    {
+        if(channel.Put(user, modes))
+            user.channels.add(channel);
+    }
+
+    /**
+     * Removes a member from a channel, and forgets the user once they share no channels with us
+     */
+    private void RemoveMember(Channel channel, User user)
+    {
+        if(!channel.Remove(user)) return;
+        user.channels.remove(channel);
+        if(user.channels.isEmpty())
+            users.remove(user.key);
+    }
+}
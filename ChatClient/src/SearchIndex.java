@@ -0,0 +1,499 @@
+/* Search Index class to find logged chat lines by keyword, nickname, channel and time.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Inverted index over the chat log. Each logged line is a document with a tab, a time and its location in the log,
+ * the text itself is read back from the log only for results. Words and nicknames map to postings lists of documents,
+ * stored as variable length deltas. Nothing is kept until search is first used, Load then reads the logs on disk and
+ * the log writer adds lines as they are written from then on. All methods are synchronized.
+ */
+public class SearchIndex {
+    public static final int MAX_RESULTS = 500; //Max results returned by a search, newest first
+    public static final int MIN_WORD_LENGTH = 2; //Shorter words are not indexed
+    public static final int MAX_WORD_LENGTH = 40; //Longer words are cut short
+
+    /**
+     * A matching line
+     */
+    public static class Result
+    {
+        public final String network; //Server the line was logged for, as its log directory name
+        public final String tab; //Tab the line was shown in, as its log directory name
+        public final long time; //Time the line was logged
+        public final int segment; //Segment the line is in
+        public final int offset; //Offset of the line in the segment
+        public ChatLine line; //The line read back from the log, null if it could not be read
+
+        Result(String network, String tab, long time, int segment, int offset)
+        {
+            this.network = network;
+            this.tab = tab;
+            this.time = time;
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Sorted list of documents, stored as variable length deltas
+     */
+    private static class Postings
+    {
+        byte[] data = new byte[4];
+        int length = 0; //Bytes used
+        int count = 0; //Documents in the list
+        int last = -1; //Last document added
+
+        void Add(int document)
+        {
+            if(document == last) return; //Word repeated in the same line
+            if(length + 5 > data.length)
+                data = Arrays.copyOf(data, data.length * 2);
+            int delta = last == -1 ? document : document - last;
+            while(delta >= 0x80)
+            {
+                data[length++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+            last = document;
+            count++;
+        }
+
+        int[] Decode()
+        {
+            int[] documents = new int[count];
+            int document = 0;
+            int position = 0;
+            for(int i = 0; i < count; i++)
+            {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do
+                {
+                    b = data[position++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while(b < 0);
+                document += delta;
+                documents[i] = document;
+            }
+            return documents;
+        }
+    }
+
+    /**
+     * Open addressing hash table from lower case word to postings, looked up by a region of a string ignoring case
+     * so indexing a line does not create a string for every word. Words are lower cased one char at a time,
+     * the same when hashing, comparing and storing, so the result doesn't depend on the default locale
+     */
+    private static class WordTable
+    {
+        String[] keys = new String[1024]; //Lower case words, null for an empty slot
+        Postings[] values = new Postings[1024];
+        int size = 0;
+
+        /**
+         * @param create If a missing word should be added
+         * @return Postings of the word, null if missing and not created
+         */
+        Postings Get(String text, int start, int end, boolean create)
+        {
+            int hash = 0;
+            for(int i = start; i < end; i++) //Same as String.hashCode of the lower case word
+                hash = 31 * hash + Character.toLowerCase(text.charAt(i));
+            int mask = keys.length - 1;
+            int slot = Mix(hash) & mask;
+            int length = end - start;
+            for(String key; (key = keys[slot]) != null; slot = (slot + 1) & mask)
+            {
+                if(key.length() == length && key.hashCode() == hash && Matches(key, text, start))
+                    return values[slot];
+            }
+            if(!create) return null;
+            keys[slot] = LowerCase(text, start, end);
+            values[slot] = new Postings();
+            Postings postings = values[slot];
+            if(++size * 3 > keys.length * 2) //Keep the table at most two thirds full
+                Grow();
+            return postings;
+        }
+
+        /**
+         * @return If a stored word is a region of text lower cased
+         */
+        private static boolean Matches(String key, String text, int start)
+        {
+            for(int i = 0; i < key.length(); i++)
+            {
+                if(key.charAt(i) != Character.toLowerCase(text.charAt(start + i)))
+                    return false;
+            }
+            return true;
+        }
+
+        private void Grow()
+        {
+            String[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new String[oldKeys.length * 2];
+            values = new Postings[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for(int i = 0; i < oldKeys.length; i++)
+            {
+                if(oldKeys[i] == null) continue;
+                int slot = Mix(oldKeys[i].hashCode()) & mask;
+                while(keys[slot] != null)
+                    slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+
+        private static int Mix(int hash)
+        {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    //Documents, indexed by document number
+    private int[] documentTabs = new int[1024]; //Index into tabs
+    private long[] documentTimes = new long[1024];
+    private int[] documentSegments = new int[1024];
+    private int[] documentOffsets = new int[1024];
+    private int documents = 0;
+
+    private final ArrayList<String[]> tabs = new ArrayList<>(); //Network and tab of each tab number
+    private final HashMap<String, Integer> tabNumbers = new HashMap<>(); //Tab number by network and tab
+    private final WordTable words = new WordTable(); //Postings by lower case word
+    private final WordTable nicks = new WordTable(); //Postings by lower case nickname
+    private volatile boolean active = false; //If Load has been called, until then no lines are indexed
+    private final HashMap<Integer, Long> firstWritten = new HashMap<>(); //Log position of the first line added by the writer, by tab number
+    private final HashMap<Integer, Long> lastLoaded = new HashMap<>(); //Log position of the last line read from disk by Load, by tab number
+
+    /**
+     * @return If search has been used, so written lines should be added
+     */
+    public boolean IsActive()
+    {
+        return active;
+    }
+
+    /**
+     * Indexes a line written by the log writer once the index is active. Lines Load already read from disk are skipped
+     * @param network Network log directory name
+     * @param tab Tab log directory name
+     * @param time Time the line was logged
+     * @param segment Segment the line was written to
+     * @param offset Offset of the line in the segment
+     * @param nick Nickname of the sender, null for lines without one
+     * @param text Text of the line
+     */
+    public synchronized void Add(String network, String tab, long time, int segment, int offset, String nick, String text)
+    {
+        int tabNumber = TabNumber(network, tab);
+        long position = Position(segment, offset);
+        Long loaded = lastLoaded.get(tabNumber);
+        if(loaded != null && position <= loaded) return; //Written before Load read the segment
+        firstWritten.putIfAbsent(tabNumber, position);
+        Index(tabNumber, time, segment, offset, nick, text);
+    }
+
+    /**
+     * Indexes a line read from disk by Load, unless the writer already added it
+     */
+    private synchronized void AddLoaded(String network, String tab, long time, int segment, int offset, String nick, String text)
+    {
+        int tabNumber = TabNumber(network, tab);
+        long position = Position(segment, offset);
+        Long written = firstWritten.get(tabNumber);
+        if(written != null && position >= written) return; //The writer adds every line of the tab from here on
+        lastLoaded.merge(tabNumber, position, Math::max);
+        Index(tabNumber, time, segment, offset, nick, text);
+    }
+
+    private void Index(int tabNumber, long time, int segment, int offset, String nick, String text)
+    {
+        if(documents == documentTimes.length)
+        {
+            int capacity = documents * 2;
+            documentTabs = Arrays.copyOf(documentTabs, capacity);
+            documentTimes = Arrays.copyOf(documentTimes, capacity);
+            documentSegments = Arrays.copyOf(documentSegments, capacity);
+            documentOffsets = Arrays.copyOf(documentOffsets, capacity);
+        }
+        int document = documents++;
+        documentTabs[document] = tabNumber;
+        documentTimes[document] = time;
+        documentSegments[document] = segment;
+        documentOffsets[document] = offset;
+        if(nick != null)
+            nicks.Get(nick, 0, nick.length(), true).Add(document);
+        int length = text.length();
+        int start = -1;
+        for(int i = 0; i <= length; i++) //Split into words of letters and digits
+        {
+            boolean wordChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if(wordChar && start == -1)
+                start = i;
+            else if(!wordChar && start != -1)
+            {
+                if(i - start >= MIN_WORD_LENGTH)
+                    words.Get(text, start, Math.min(i, start + MAX_WORD_LENGTH), true).Add(document); //Looked up in place, a string is only created for a new word
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * @return Number of lines indexed
+     */
+    public synchronized int GetDocumentCount()
+    {
+        return documents;
+    }
+
+    /**
+     * Searches for lines containing every word of a query. Query terms:
+     * a word matches lines containing it, from:nick matches lines sent by that nickname,
+     * in:name only matches lines in tabs with that name eg in:#general
+     * @param query Search text
+     * @return Up to MAX_RESULTS matches, newest first. The lines are not read from the log yet
+     */
+    public ArrayList<Result> Search(String query)
+    {
+        ArrayList<Postings> terms = new ArrayList<>();
+        ArrayList<String> tabFilters = new ArrayList<>();
+        int[] matches;
+        synchronized (this)
+        {
+            for(String term : LowerCase(query, 0, query.length()).trim().split("\\s+"))
+            {
+                if(term.isEmpty()) continue;
+                if(term.startsWith("from:") && term.length() > 5)
+                {
+                    terms.add(nicks.Get(term, 5, term.length(), false));
+                    continue;
+                }
+                if(term.startsWith("in:") && term.length() > 3)
+                {
+                    tabFilters.add(ChatLog.FileName(term.substring(3)));
+                    continue;
+                }
+                int start = -1;
+                for(int i = 0; i <= term.length(); i++) //Same splitting as indexing, so "don't" looks for "don"
+                {
+                    boolean wordChar = i < term.length() && Character.isLetterOrDigit(term.charAt(i));
+                    if(wordChar && start == -1)
+                        start = i;
+                    else if(!wordChar && start != -1)
+                    {
+                        if(i - start >= MIN_WORD_LENGTH)
+                            terms.add(words.Get(term, start, Math.min(i, start + MAX_WORD_LENGTH), false));
+                        start = -1;
+                    }
+                }
+            }
+            if(terms.isEmpty() || terms.contains(null)) //No terms, or a term that matches nothing
+                return new ArrayList<>();
+            terms.sort((a, b) -> Integer.compare(a.count, b.count)); //Intersect from the shortest list
+            matches = terms.get(0).Decode();
+            for(int i = 1; i < terms.size() && matches.length > 0; i++)
+                matches = Intersect(matches, terms.get(i).Decode());
+            if(!tabFilters.isEmpty())
+                matches = FilterTabs(matches, tabFilters);
+            return Newest(matches);
+        }
+    }
+
+    /**
+     * Reads the lines of results back from the log
+     * @param results Results to fill in
+     */
+    public static void ReadLines(ArrayList<Result> results)
+    {
+        for(Result result : results)
+        {
+            try {
+                result.line = ChatLog.Read(ChatLog.SegmentFile(ChatLog.Directory.resolve(result.network).resolve(result.tab), result.segment), result.offset).line;
+            }
+            catch (IOException ex)
+            {
+                result.line = null; //Log was deleted or damaged
+            }
+        }
+    }
+
+    /**
+     * Builds the index on first use: turns on indexing of written lines, then indexes the logs already on disk.
+     * Later calls do nothing. Slow for large logs, call from a background thread
+     * @param directory Log directory
+     */
+    public void Load(Path directory)
+    {
+        synchronized (this)
+        {
+            if(active) return;
+            active = true;
+        }
+        if(!Files.isDirectory(directory)) return;
+        try (DirectoryStream<Path> networks = Files.newDirectoryStream(directory))
+        {
+            for(Path network : networks)
+            {
+                if(!Files.isDirectory(network)) continue;
+                try (DirectoryStream<Path> tabDirectories = Files.newDirectoryStream(network))
+                {
+                    for(Path tab : tabDirectories)
+                        LoadTab(network.getFileName().toString(), tab);
+                }
+            }
+        }
+        catch (IOException ignored) { } //Index whatever could be read
+    }
+
+    private void LoadTab(String network, Path tab) throws IOException
+    {
+        if(!Files.isDirectory(tab)) return;
+        String tabName = tab.getFileName().toString();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tab, "*.log"))
+        {
+            for(Path file : files)
+            {
+                int segment = ChatLog.SegmentNumber(file);
+                if(segment <= 0) continue;
+                ChatLog.ReadSegment(file, (offset, entry) -> AddLoaded(network, tabName, entry.time, segment, offset, entry.line.nick, entry.line.text));
+            }
+        }
+    }
+
+    private int TabNumber(String network, String tab)
+    {
+        String key = network + "\n" + tab;
+        Integer number = tabNumbers.get(key);
+        if(number == null)
+        {
+            number = tabs.size();
+            tabs.add(new String[] { network, tab });
+            tabNumbers.put(key, number);
+        }
+        return number;
+    }
+
+    /**
+     * @return Segment and offset as one number that orders lines of a tab by when they were written
+     */
+    private static long Position(int segment, int offset)
+    {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Lower cases one char at a time, as words are indexed. Unlike String.toLowerCase this never changes the length
+     * or depends on the default locale
+     */
+    private static String LowerCase(String text, int start, int end)
+    {
+        char[] lower = new char[end - start];
+        for(int i = 0; i < lower.length; i++)
+            lower[i] = Character.toLowerCase(text.charAt(start + i));
+        return new String(lower);
+    }
+
+    private static int[] Intersect(int[] a, int[] b)
+    {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for(int i = 0, j = 0; i < a.length && j < b.length; )
+        {
+            if(a[i] < b[j]) i++;
+            else if(a[i] > b[j]) j++;
+            else
+            {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private int[] FilterTabs(int[] matches, ArrayList<String> tabFilters)
+    {
+        boolean[] allowed = new boolean[tabs.size()];
+        for(int i = 0; i < tabs.size(); i++)
+            allowed[i] = tabFilters.contains(tabs.get(i)[1]);
+        int count = 0;
+        for(int document : matches)
+        {
+            if(allowed[documentTabs[document]])
+                matches[count++] = document;
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * Picks the newest MAX_RESULTS matches using a min heap on time, newest first
+     */
+    private ArrayList<Result> Newest(int[] matches)
+    {
+        int[] heap = new int[Math.min(MAX_RESULTS, matches.length)];
+        int size = 0;
+        for(int document : matches)
+        {
+            if(size < heap.length)
+            {
+                heap[size] = document; //Sift up
+                for(int i = size++; i > 0 && Older(heap[i], heap[(i - 1) / 2]); i = (i - 1) / 2)
+                    Swap(heap, i, (i - 1) / 2);
+            }
+            else if(Older(heap[0], document)) //Newer than the oldest kept, replace it and sift down
+            {
+                heap[0] = document;
+                for(int i = 0; ; )
+                {
+                    int child = i * 2 + 1;
+                    if(child >= size) break;
+                    if(child + 1 < size && Older(heap[child + 1], heap[child])) child++;
+                    if(!Older(heap[child], heap[i])) break;
+                    Swap(heap, i, child);
+                    i = child;
+                }
+            }
+        }
+        ArrayList<Result> results = new ArrayList<>(size);
+        for(int i = 0; i < size; i++)
+        {
+            int document = heap[i];
+            String[] tab = tabs.get(documentTabs[document]);
+            results.add(new Result(tab[0], tab[1], documentTimes[document], documentSegments[document], documentOffsets[document]));
+        }
+        results.sort((a, b) -> Long.compare(b.time, a.time));
+        return results;
+    }
+
+    private boolean Older(int a, int b)
+    {
+        return documentTimes[a] < documentTimes[b] || (documentTimes[a] == documentTimes[b] && a < b);
+    }
+
+    private static void Swap(int[] array, int a, int b)
+    {
+        int temp = array[a];
+        array[a] = array[b];
+        array[b] = temp;
+    }
+}
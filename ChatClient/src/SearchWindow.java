@@ -0,0 +1,186 @@
+/* GUI window to search the chat history of every server and jump to a result
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+public class SearchWindow {
+    private static SearchWindow instance; //The window, shared by every server
+
+    private JFrame frame; //Window
+    private JTextField queryField; //Search text
+    private JLabel statusLabel; //Result count and indexing progress
+    private ArrayList<SearchIndex.Result> results = new ArrayList<>(); //Results being shown
+    private ResultModel model = new ResultModel(); //Table model over the results
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm"); //Format of the time column, only used on the event thread
+
+    /**
+     * Table model over the current results
+     */
+    private class ResultModel extends AbstractTableModel
+    {
+        private final String[] columns = { "Time", "Where", "Line" };
+
+        @Override
+        public int getRowCount() { return results.size(); }
+
+        @Override
+        public int getColumnCount() { return columns.length; }
+
+        @Override
+        public String getColumnName(int column) { return columns[column]; }
+
+        @Override
+        public Object getValueAt(int row, int column)
+        {
+            SearchIndex.Result result = results.get(row);
+            switch (column)
+            {
+                case 0: return timeFormat.format(new Date(result.time));
+                case 1: return result.tab + " (" + result.network + ")";
+                default:
+                    if(result.line == null) return "(no longer in the log)";
+                    return result.line.nick == null ? result.line.text : result.line.nick + ": " + result.line.text;
+            }
+        }
+    }
+
+    /**
+     * Shows the search window, creating it on first use. Must be called on the event thread
+     */
+    public static void Show()
+    {
+        if(instance == null)
+            instance = new SearchWindow();
+        instance.frame.setVisible(true);
+        instance.frame.toFront();
+        instance.queryField.requestFocusInWindow();
+    }
+
+    private SearchWindow()
+    {
+        SetupGUI();
+        statusLabel.setText("Indexing logs...");
+        Thread loader = new Thread(() -> { //Build the index on first use without blocking the window
+            ChatLog.Index.Load(ChatLog.Directory);
+            SwingUtilities.invokeLater(() -> statusLabel.setText(ChatLog.Index.GetDocumentCount() + " lines indexed"));
+        }, "irc-search-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private void SetupGUI()
+    {
+        frame = new JFrame("Search history"); //Create window
+        frame.setPreferredSize(new Dimension(700, 400)); //Set window size
+        frame.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE); //Keep the window and its index loader for next time
+
+        JPanel container = new JPanel(new GridBagLayout()); //New parent container for this window, uses grid bag layout scheme
+        GridBagConstraints c = new GridBagConstraints(); //Create grid bag layout constraints to position and size child elements
+        c.insets = new Insets(3,3,3,3); //add padding
+
+        queryField = new JTextField(); //Search text, words plus from:nick and in:#channel
+        queryField.setToolTipText("Words to find. from:nick limits to a sender, in:#channel limits to a tab");
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.weightx = 1;
+        container.add(queryField, c);
+
+        JButton searchButton = new JButton("Search");
+        c.gridx = 1;
+        c.weightx = 0;
+        container.add(searchButton, c);
+        queryField.addActionListener(e -> Search()); //Enter searches
+        searchButton.addActionListener(e -> Search());
+
+        JTable table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(110);
+        table.getColumnModel().getColumn(1).setPreferredWidth(150);
+        table.getColumnModel().getColumn(2).setPreferredWidth(440);
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = table.getSelectedRow();
+                if(e.getClickCount() == 2 && row != -1) //Double click jumps to the line
+                    Jump(results.get(row));
+            }
+        });
+        c.fill = GridBagConstraints.BOTH; //Fill size both vertically and horizontally
+        c.gridx = 0;
+        c.gridy = 1;
+        c.gridwidth = 2;
+        c.weighty = 1;
+        container.add(new JScrollPane(table), c);
+
+        statusLabel = new JLabel(" ");
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.gridy = 2;
+        c.weighty = 0;
+        container.add(statusLabel, c);
+
+        frame.add(container); //add the container to the window
+        frame.pack(); //Pack the GUI elements into the window
+    }
+
+    /**
+     * Runs the search off the event thread, since result lines are read from the log files, then shows the results
+     */
+    private void Search()
+    {
+        String query = queryField.getText();
+        statusLabel.setText("Searching...");
+        new SwingWorker<ArrayList<SearchIndex.Result>, Void>() {
+            private long elapsed; //Search time in milliseconds, not counting reading the lines
+
+            @Override
+            protected ArrayList<SearchIndex.Result> doInBackground() {
+                long start = System.nanoTime();
+                ArrayList<SearchIndex.Result> found = ChatLog.Index.Search(query);
+                elapsed = (System.nanoTime() - start) / 1000000;
+                SearchIndex.ReadLines(found);
+                return found;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    results = get();
+                }
+                catch (Exception ex)
+                {
+                    results = new ArrayList<>();
+                }
+                model.fireTableDataChanged();
+                statusLabel.setText(results.size() + (results.size() == SearchIndex.MAX_RESULTS ? "+" : "") + " results in " + elapsed + " ms, "
+                        + ChatLog.Index.GetDocumentCount() + " lines indexed");
+            }
+        }.execute();
+    }
+
+    /**
+     * Shows a result in the chat window of its server
+     */
+    private void Jump(SearchIndex.Result result)
+    {
+        if(result.line == null) return;
+        for(ServerConnection connection : ConnectionManager.ServerConnections)
+        {
+            if(connection.chatWindow != null && ChatLog.FileName(connection.Name).equals(result.network))
+            {
+                if(!connection.chatWindow.ShowLine(result.tab, result.line))
+                    statusLabel.setText("That line is no longer in the tab's scrollback");
+                return;
+            }
+        }
+        statusLabel.setText("Not connected to " + result.network);
+    }
+}
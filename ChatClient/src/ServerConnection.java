@@ -7,6 +7,7 @@
 import com.sun.jdi.connect.spi.ClosedConnectionException;
 
 import javax.lang.model.type.NullType;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.*;
 import java.nio.ByteBuffer;
@@ -22,41 +23,54 @@ public class ServerConnection {
         SUCCESS //Login succeeded
     }
 
-    public enum ChannelJoinResult //Result of an async channel join request
-    {
-        FULL, //Channel is full
-        SUCCESS, //Join success
-        ILLEGAL_NAME, //Invalid name
-    }
-
     //Public variables
     public String Name; //Name of server eg. irc.ecs.vuw.ac.nz:6667
-    public ChatWindow chatWindow; //Chat window for this server connection. Each server connection gets a seperate chat window
+    public ChatWindow chatWindow; //Chat window for this server connection. Each server connection gets a seperate chat window, null when running without a display
+    public ConnectionListener listener; //Receives all output and events from this connection, the chat window when there is one
     public CommandHandler commandHandler = new CommandHandler(this); //Command handler to handle commands from the server and user. Executes actions based on commands
     public String nickName; //Current nickname
+    public OutboundQueue outboundQueue = new OutboundQueue(this); //Queue of lines to send, keeps one socket write in flight
+    public ISupport isupport = new ISupport(); //Features and limits from the server's 005 replies
+    public TargetRegistry targets = new TargetRegistry(); //Canonical keys of channel and nick names under the server's case mapping
+    public Roster roster = new Roster(targets); //Members of every joined channel
+    public Capabilities caps = new Capabilities(); //IRCv3 capabilities negotiated at registration
+    public ChatHistory history = new ChatHistory(); //Last message seen per target, kept across reconnects to backfill what was missed
+    public RequestTracker requests = new RequestTracker(this); //Commands waiting for their replies
 
     //Private variables
-    private AsynchronousSocketChannel client; //Main TCP client that is connected to the IRC server
+    private Transport client; //Main TCP client that is connected to the IRC server, async or blocking depending on the selected engine
     private String host; //Host that this server connection connects to
     private int port; //Port for the IRC connection, in most cases, 6667
-    private boolean connectFinished = false; //If the async connection has finished
-    private boolean connectionSucceeded = false; //If the async connection succeeded
+    private volatile boolean connectFinished = false; //If the async connection has finished, cleared by Disconnect so failures after a deliberate close are ignored
+    private volatile boolean connectionSucceeded = false; //If the async connection succeeded
     private ServerConnection context = this; //This server connection, used as a callback parameter so different server connections can be opened simultaneously
-    private StringBuilder readBuffer = new StringBuilder(); //Buffer for reading incoming messages.
+    private ByteBuffer readBuffer = ByteBuffer.allocate(4096); //Buffer for reading incoming data, reused for every read
+    private LineFramer lineFramer = new LineFramer(); //Splits incoming data into IRC lines
     private String userName; //Current username
     private String realName; //Current realname
     private boolean hidden; //Usermode +i (Hides user from user lists)
-    private CompletionHandler<LoginResult, ServerConnection> pendingLoginCallback; //Callback for a pending async login request
-    private CompletionHandler<String, ServerConnection> pendingJoinCallback; //Callback for a pending async channel join request
     private String networkName; //Network name of the server eg "EFNet"
 
     /**
-     *
+     * Creates a connection with its own chat window
      * @param name connection name to use eg host:port. If no port is specified, use 6667
      */
     public ServerConnection(String name) //Constructor
+    {
+        this(name, null);
+        chatWindow = new ChatWindow(host + ":" + port, context); //Create chat window with title as host:port, give it the context of the parent server connection
+        listener = ChatLog.Enabled ? new LoggingListener(chatWindow, name) : chatWindow; //Log everything the window shows
+    }
+
+    /**
+     * Creates a connection without any GUI. All output and events go to the listener
+     * @param name connection name to use eg host:port. If no port is specified, use 6667
+     * @param listener Listener for output and events, eg a ConsoleListener
+     */
+    public ServerConnection(String name, ConnectionListener listener)
     {
         Name = name;
+        this.listener = listener == null || !ChatLog.Enabled ? listener : new LoggingListener(listener, name); //Log everything the listener is given
         if(name.contains(":")) //If port number is specified
         {
             String[] endp = name.split(":"); //If the name is in the host:port format
@@ -68,21 +82,29 @@ public class ServerConnection {
             host = name;
             port = 6667; //Default IRC port
         }
-        chatWindow = new ChatWindow(host + ":" + port, context); //Create chat window with title as host:port, give it the context of the parent server connection
     }
 
     /**
-     * Process caller ID command sent by the server. Command handler gets the command and sends it here.
-     * Caller ID contains server name eg "EFNet". This is passed to the chat window
-     * @param command
+     * Process a 005 reply sent by the server. Command handler gets the reply and sends it here.
+     * The tokens update the connection's ISupport settings, and the roster and front end are told about the ones they use
+     * @param message Parsed 005 reply
      */
-    public void ProcessCallerID(String command)
+    public void ProcessISupport(IrcMessage message)
     {
-        if(command.contains("NETWORK=")) //If network name is in the command
+        int changed = isupport.Parse(message);
+        if((changed & ISupport.CHANGED_CASE_MAPPING) != 0 && targets.SetCaseMapping(isupport.GetCaseMapping()))
+        {
+            roster.Rehash(); //Keys were folded again, their hashes changed
+            listener.CaseMappingChanged(); //Tabs of keys that were merged are moved to the key that remains
+        }
+        if((changed & ISupport.CHANGED_PREFIX) != 0) //Member prefixes used in NAMES and MODE
+            roster.SetPrefixes(isupport.GetPrefixModes(), isupport.GetPrefixSymbols());
+        if((changed & ISupport.CHANGED_CHANNEL_MODES) != 0) //Which MODE arguments to skip
+            roster.SetChannelModes(isupport.GetChannelModes(0), isupport.GetChannelModes(1), isupport.GetChannelModes(2));
+        if((changed & ISupport.CHANGED_NETWORK) != 0 && isupport.GetNetwork() != null)
         {
-            int index = command.indexOf("NETWORK="); //Get the string position of the network name
-            networkName = command.substring(index + 8, command.indexOf(" ", index)); //get the name
-            chatWindow.SetNetworkName(networkName); //Set the chat window default server chat tab to the network name
+            networkName = isupport.GetNetwork();
+            listener.NetworkNameChanged(networkName); //Let the front end show the network name
         }
     }
 
@@ -92,7 +114,7 @@ public class ServerConnection {
      */
     public boolean Connected()
     {
-        return (client != null && client.isOpen() && connectFinished && connectionSucceeded); //If the client is not null, the tcp socket is open, the connection has finished and succeeded
+        return (client != null && client.IsOpen() && connectFinished && connectionSucceeded); //If the client is not null, the tcp socket is open, the connection has finished and succeeded
     }
 
     /**
@@ -102,27 +124,40 @@ public class ServerConnection {
     public void Connect(CompletionHandler<Void, ServerConnection> callback)
     {
         try {
-            readBuffer.setLength(0); //Clear the read buffer, may have data from previous connection
-            client = AsynchronousSocketChannel.open(); //Open new socket
-            client.connect(new InetSocketAddress(host, port), null, new CompletionHandler<Void, Object>() { //Start async socket connection to IRC server
+            readBuffer.clear(); //Clear the read buffer, may have data from previous connection
+            lineFramer.Reset(); //Drop any partial line from the previous connection
+            commandHandler.Reset(); //And any batch or block left open
+            requests.FailAll(new ClosedConnectionException()); //Replies to requests sent on the old socket will never come
+            roster.Clear(); //Channels from a previous connection are joined again from scratch
+            isupport.Reset(); //The server sends its settings again after registering
+            if(targets.SetCaseMapping(isupport.GetCaseMapping())) //Back to the default until the server says otherwise
+                listener.CaseMappingChanged();
+            roster.SetPrefixes(Roster.DEFAULT_PREFIX_MODES, Roster.DEFAULT_PREFIX_SYMBOLS);
+            Transport transport = ConnectionManager.OpenTransport(); //Open new socket with the selected engine
+            client = transport;
+            outboundQueue.Reset(null); //Detach from the old socket, nothing is written until the new one has connected
+            transport.Connect(new InetSocketAddress(host, port), new CompletionHandler<Void, Object>() { //Start async socket connection to IRC server
                 @Override
                 public void completed(Void result, Object attachment) { //Completed handler
-                    chatWindow.WriteLine("Connected to server: " + host + ":" + port, "green");
+                    listener.ServerMessage("Connected to server: " + host + ":" + port, "green");
                     connectFinished = true;
                     connectionSucceeded = true;
+                    outboundQueue.Reset(transport); //Send on the new socket now it is connected
                     callback.completed(result, context); //Invoke connection callback for a completed connection
 
                     //Begin read
                     Read(new CompletionHandler<String, ServerConnection>() { //Start asynchronously reading data from server
                         @Override
                         public void completed(String result, ServerConnection attachment) { //On incoming data
-                            commandHandler.HandleServerCommand(result, chatWindow); //Pass data to command handler to be parsed
+                            commandHandler.HandleServerCommand(result); //Pass data to command handler to be parsed
                         }
 
                         @Override
                         public void failed(Throwable exc, ServerConnection attachment) { //Failed tor read data from server
-                            chatWindow.WriteLine("Error reading data from: " + attachment.Name + " - Error: " + exc + "\nDisconnecting from server...", "red"); //Print error to chat window
+                            if(!connectFinished) return; //Socket was closed by Disconnect, nothing to report
+                            listener.ServerMessage("Error reading data from: " + attachment.Name + " - Error: " + exc + "\nDisconnecting from server...", "red"); //Print error to chat window
                             Disconnect(); //Disconnect from server if read error occurs.
+                            ConnectionManager.ConnectionLost(context); //Bring the session back
                         }
                     });
                 }
@@ -150,76 +185,183 @@ public class ServerConnection {
     {
         try
         {
-            readBuffer.setLength(0); //Clear message read buffer
+            readBuffer.clear(); //Clear read buffer
+            lineFramer.Reset(); //Clear partially received message
             connectionSucceeded = false;
             connectFinished = false;
-            if(pendingLoginCallback != null) //If there is a pending login
-                pendingLoginCallback.failed(new ClosedConnectionException(), context); //Invoke the failed callback
-            if(pendingJoinCallback != null) //If there is a pending channel join request
-                pendingJoinCallback.failed(new ClosedConnectionException(), context); //Invoke the failed callback
-            pendingLoginCallback = null;
-            pendingJoinCallback = null;
-            client.shutdownOutput();
-            client.shutdownOutput();
-            client.close(); //Close TCP socket
+            requests.FailAll(new ClosedConnectionException()); //Fail every request still waiting for a reply
+            client.Close(); //Close TCP socket
         }
         catch (IOException ex)
         {
-            chatWindow.WriteLine("Error disconnecting: " + ex, "red"); //Print error
+            listener.ServerMessage("Error disconnecting: " + ex, "red"); //Print error
         }
     }
 
     /**
      * Send message or command to server
-     * @param message Message to send
+     * @param message Message to send, without CR/LF
      */
     public void Send(String message)
     {
-        client.write(StandardCharsets.US_ASCII.encode(message + "\r\n")); //Encode message + newline as ASCII, then send on socket
+        outboundQueue.Add(message); //Queue the message in the lane for its verb, it is encoded as ASCII with a newline when flood control lets it through. Safe to call from any thread
+    }
+
+    /**
+     * Send message or command to server, and be told when it has been written
+     * @param message Message to send, without CR/LF
+     * @param sent Told once the line is written to the socket, or failed if it is dropped. It may be sent merged with others as a multi target command
+     */
+    public void Send(String message, CompletionHandler<Void, String> sent)
+    {
+        outboundQueue.Add(message, OutboundQueue.PriorityOf(message), sent);
+    }
+
+    /**
+     * Send message or command to server in a specific send lane
+     * @param message Message to send, without CR/LF
+     * @param priority Lane to send in, overrides the lane picked from the command verb
+     */
+    public void Send(String message, OutboundQueue.Priority priority)
+    {
+        outboundQueue.Add(message, priority);
+    }
+
+    /**
+     * Send a command and be told when the server answers it. Any number of requests can be waiting at once.
+     * Replies are matched by the command's target, or by label when the server has labeled-response
+     * @param line Command to send, eg "WHOIS nick". NICK, JOIN, WHOIS, NAMES, LIST and channel MODE queries are tracked, see RequestTracker.IsTracked
+     * @param callback Completed with the raw reply that ended the request, failed with the error reply,
+     *                 a RequestTimeoutException, or ClosedConnectionException if the connection is lost first
+     */
+    public void Request(String line, CompletionHandler<String, ServerConnection> callback)
+    {
+        String[] words = line.split(" ");
+        if(!requests.IsTracked(words)) //Nothing to wait for
+        {
+            Send(line);
+            callback.completed(null, context);
+            return;
+        }
+        boolean labeled = caps.IsEnabled("labeled-response") && caps.IsEnabled("batch") && !words[0].equalsIgnoreCase("JOIN"); //Joins are matched by channel, so they can still be merged into one command
+        String label = requests.Add(words[0], RequestTracker.TargetOf(words), labeled, RequestTracker.TIMEOUT, callback);
+        Send(label == null ? line : "@label=" + label + " " + line, OutboundQueue.PriorityOf(line)); //Lane of the command, not the tag
     }
 
     /**
-     * Join IRC server channel asynchronously.
+     * Send a chat message to a channel or user and show it as our own message.
+     * Messages too long for the server's line length are split into several, at a space where possible
+     * @param message Message to send
+     * @param target Channel or nickname to send to
+     */
+    public void SendChat(String message, String target)
+    {
+        target = targets.Intern(target).GetKey(); //Canonical name, shared by every line for the target
+        int maxLength = Math.max(1, isupport.GetLineLength() - 2 - RelayedLength("PRIVMSG", target)); //Room left for the text once the server adds our prefix
+        int start = 0;
+        do
+        {
+            int end = Math.min(message.length(), start + maxLength);
+            if(end < message.length())
+            {
+                int space = message.lastIndexOf(' ', end);
+                if(space > start + maxLength / 2) //Don't split words unless there is no space in the second half
+                    end = space;
+            }
+            String part = message.substring(start, end);
+            String tab = target;
+            Send("PRIVMSG " + target + " :" + part, new CompletionHandler<Void, String>() { //Send privmsg command to IRC server, same text to several targets goes as one command
+                @Override
+                public void completed(Void result, String line) { }
+
+                @Override
+                public void failed(Throwable exc, String line) { //Lost with the connection
+                    listener.TargetMessage(tab, "Not sent: " + part, "red");
+                }
+            });
+            listener.ChatMessage(target, nickName, part, true); //Show the sent message as others will see it
+            start = end < message.length() && message.charAt(end) == ' ' ? end + 1 : end;
+        }
+        while(start < message.length());
+    }
+
+    /**
+     * Gets the length of everything but the text of a message we send, as other clients receive it
+     * eg ":nick!user@host PRIVMSG #channel :". Our host is taken from the roster once we have joined a channel
+     * @param command Command being sent
+     * @param target Target of the command
+     * @return Length in bytes
+     */
+    public int RelayedLength(String command, String target)
+    {
+        User self = nickName == null ? null : roster.GetUser(nickName);
+        int user = self != null && self.GetUserName() != null ? self.GetUserName().length() : (userName == null ? 9 : userName.length()) + 1; //Allow for a ~ added by the server
+        int host = self != null && self.GetHost() != null ? self.GetHost().length() : 63; //Longest host name
+        int nick = nickName == null ? isupport.GetNickLength() : nickName.length();
+        return 1 + nick + 1 + user + 1 + host + 1 + command.length() + 1 + target.length() + 2;
+    }
+
+    /**
+     * Called by the outbound queue when a socket write fails
+     * @param exc Cause of the failure
+     */
+    public void WriteFailed(Throwable exc)
+    {
+        if(!connectFinished) return; //Socket was closed by Disconnect, nothing was lost
+        listener.ServerMessage("Error sending data to: " + Name + " - Error: " + exc + "\nDisconnecting from server...", "red"); //Print error to chat window
+        Disconnect(); //Disconnect from server if write error occurs.
+        ConnectionManager.ConnectionLost(context); //Bring the session back
+    }
+
+    /**
+     * Join IRC server channel asynchronously. Any number of joins can be in flight, joins queued together are sent as one command
      * @param name Name of channel to join
-     * @param callback
+     * @param callback Completed with the channel name once joined
      */
-    public void JoinChannel(String name, CompletionHandler<String, ServerConnection> callback) //HANDLE JOIN CALLBACKS ###################################################################################
+    public void JoinChannel(String name, CompletionHandler<String, ServerConnection> callback)
     {
         if(Connected()) //If IRC server connection is active
         {
-            if(pendingJoinCallback != null) //If not already awaiting a channel join
+            if(!isupport.IsChannel(name)) //Doesn't start with one of the server's channel types
+            {
+                callback.failed(new CustomExceptions.IllegalChannelNameException("Channel names start with one of: " + isupport.GetChannelTypes()), context);
+                return;
+            }
+            if(CountChannels(name.charAt(0)) >= isupport.GetChannelLimit(name.charAt(0)) && !roster.InChannel(name))
             {
-                callback.failed(new CustomExceptions.ChannelJoinPendingException("A channel join request is pending. Please wait for this to complete before attempting to join again."), context);
+                callback.failed(new CustomExceptions.ChannelLimitException("Already in the most " + name.charAt(0) + " channels the server allows"), context);
                 return;
             }
-            Send("JOIN " + name); //Send join command
-            pendingJoinCallback = callback; //Set global join callback to the callback parameters
+            Request("JOIN " + name, new CompletionHandler<String, ServerConnection>() { //Send join command
+                @Override
+                public void completed(String reply, ServerConnection attachment) { //Our own JOIN
+                    IrcMessage join = new IrcMessage();
+                    join.Parse(reply);
+                    callback.completed(join.Param(0), attachment); //Channel name as the server spells it
+                }
+
+                @Override
+                public void failed(Throwable exc, ServerConnection attachment) {
+                    callback.failed(exc, attachment);
+                }
+            });
         }
         else
             callback.failed(new NotYetConnectedException(), context); //Invoke failed join callback
     }
 
     /**
-     * Finish async channel join. Invokes callback with data containing result of the channel join
-     * @param result
-     * @param channelName
+     * @return Number of joined channels of a type, which CHANLIMIT counts against
      */
-    public void ProcessPendingJoin(ChannelJoinResult result, String channelName)
+    private int CountChannels(char channelType)
     {
-        if(pendingJoinCallback == null) return; //If the callback has been deleted or doesn't exist
-        switch (result) //Handle outcome of login request
+        int count = 0;
+        for(String channel : roster.GetChannels())
         {
-            case SUCCESS: //Joined channel successfully
-                pendingJoinCallback.completed(channelName, context); //Invoke success callback
-                break;
-            case FULL:  //Failed because channel is full
-                pendingJoinCallback.failed(new CustomExceptions.ChannelFullException("The selected channel is full!"), context); //Invoke failure callback with error indicating full server
-                break;
-            case ILLEGAL_NAME: //Channel name is invalid or illegal
-                pendingJoinCallback.failed(new CustomExceptions.IllegalChannelNameException("The selected channel name is invalid!"), context); //Invoke failure callback with error indicating name was rejected
-                break;
+            if(channel.charAt(0) == channelType)
+                count++;
         }
-        pendingJoinCallback = null; //Delete callback
+        return count;
     }
 
     /**
@@ -249,9 +391,21 @@ public class ServerConnection {
         this.hidden = hidden;
         if(Connected()) //If connection to IRC server is active
         {
+            caps.Begin();
+            requests.Add("NICK", null, false, RequestTracker.LOGIN_TIMEOUT, new CompletionHandler<String, ServerConnection>() { //Ended by the welcome reply or a nickname error
+                @Override
+                public void completed(String reply, ServerConnection attachment) {
+                    callback.completed(LoginResult.SUCCESS, attachment);
+                }
+
+                @Override
+                public void failed(Throwable exc, ServerConnection attachment) {
+                    callback.failed(exc, attachment);
+                }
+            });
+            Send("CAP LS 302"); //Ask for the server's IRCv3 capabilities first, it holds registration until CAP END. Servers without CAP ignore it
             Send("NICK " + nickName); //Send nickname to server
             Send("USER " + userName + " " + (hidden ? 8 : 0) + " * : " + realName); //Send user command with parameters for username, realName and hidden status
-            pendingLoginCallback = callback; //Set the callback for login completion
         }
         else
             callback.failed(new NotYetConnectedException(), context); //Invoke callback and pass a failed exception.
@@ -268,61 +422,46 @@ public class ServerConnection {
     }
 
     /**
-     * Async handler for completing a pending login request.
-     * @param loginResult The resulting outcome of the login request
+     * Logs in again with the names of the last login, eg after reconnecting
+     * @param callback Async completion callback for login
      */
-    public void ProcessPendingLogin(LoginResult loginResult)
+    public void Relogin(CompletionHandler<LoginResult, ServerConnection> callback)
     {
-        if(pendingLoginCallback == null) return; //If the callback has been deleted or doesn't exist
-        switch (loginResult) //Handle outcome of login request
-        {
-            case SUCCESS:
-                pendingLoginCallback.completed(LoginResult.SUCCESS, context); //Invoke success callback
-                break;
-            case NAME_IN_USE:
-                pendingLoginCallback.failed(new CustomExceptions.NameTakenException("The selected username or nickname is already in use!"), context); //Invoke failure callback with error indicating name in use
-                break;
-            case BAD_NAME:
-                pendingLoginCallback.failed(new CustomExceptions.BadNameException("The selected username or nickname was rejected by the server!"), context); //Invoke failure callback with error indicating name was rejected
-                break;
-        }
-        pendingLoginCallback = null; //Delete callback
+        Login(nickName, userName, realName, hidden, callback);
     }
 
     /**
-     * Chunks data into messages based on carriage return and newline characters.
+     * Chunks data into messages based on line terminators using the line framer.
      * Invokes callback method when a message is found
      * @param callback
      */
     private void ProcessMessage(CompletionHandler<String, ServerConnection> callback)
     {
-        int index;
-        while((index = readBuffer.indexOf("\r\n")) != -1) //Loop through any and all messages in buffer
-        {
-            callback.completed(readBuffer.substring(0, index), context); //Invoke callback for new message
-            readBuffer.delete(0, index + 2); //Removes processed message from buffer
-        }
+        lineFramer.Feed(readBuffer, (byte[] data, int offset, int length) -> {
+            if(length > 0) //Ignore empty lines
+                callback.completed(new String(data, offset, length, StandardCharsets.US_ASCII), context); //Invoke callback for new message
+        });
     }
 
     /**
-     * Asynchronously reads from TCP socket, invokes callback on new messages
+     * Starts reading from the TCP socket, invokes callback on new messages
      * @param callback
      */
     private void Read(CompletionHandler<String, ServerConnection> callback)
     {
-        ByteBuffer buffer = ByteBuffer.allocate(256); //256 byte buffer
-        client.read(buffer, 1, TimeUnit.DAYS, null, new CompletionHandler<Integer, Object>() { //Read from socket into buffer
+        client.StartReading(readBuffer, new CompletionHandler<Integer, ByteBuffer>() { //Transport reads into the buffer until the socket closes
             @Override
-            public void completed(Integer result, Object attachment) {
-                buffer.flip(); //Flip buffer positions so reading and writing happens at the correct place
-                readBuffer.append(StandardCharsets.US_ASCII.decode(buffer)); //Decode bytes as ASCII text
+            public void completed(Integer result, ByteBuffer attachment) {
+                if(result < 0) //End of stream, server closed the connection
+                {
+                    callback.failed(new EOFException("Connection closed by server"), context);
+                    return;
+                }
                 ProcessMessage(callback); //Process the data so messages can be parsed
-                if(Connected()) //If the connection is still active
-                    Read(callback); //Start reading new messages again
             }
 
             @Override
-            public void failed(Throwable exc, Object attachment) {
+            public void failed(Throwable exc, ByteBuffer attachment) {
                 callback.failed(exc, context);
             }
         });
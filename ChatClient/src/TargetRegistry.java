@@ -0,0 +1,254 @@
+/* Target Registry class to give every channel and nickname of a connection one canonical key object under the server's case mapping.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Names are folded and hashed once, when first seen. After that a lookup hashes the name in place, straight from the
+ * received line if need be, and returns the existing key without allocating. Keys use identity equality, so maps keyed
+ * by them never compare strings. Entries are weakly held: a key is forgotten once no tab, roster entry or queued line uses it.
+ */
+public class TargetRegistry {
+    /**
+     * Canonical key of a channel or nickname. There is only ever one live Target per folded name
+     */
+    public static final class Target
+    {
+        final String name; //Name as first seen, folded again if the case mapping changes
+        String key; //Name folded with the case mapping
+        int hash; //Hash of the folded name
+
+        private Target(String name, String key, int hash)
+        {
+            this.name = name;
+            this.key = key;
+            this.hash = hash;
+        }
+
+        /**
+         * @return Name folded with the server's case mapping, eg "#chat{}" for "#Chat[]" under rfc1459
+         */
+        public String GetKey()
+        {
+            return key;
+        }
+
+        @Override
+        public String toString()
+        {
+            return key;
+        }
+    }
+
+    private static final int MIN_SIZE = 64;
+
+    //Open addressing hash table with linear probing. A slot whose key has been collected is reused by the next new key probing past it
+    private WeakReference<Target>[] slots = NewTable(MIN_SIZE);
+    private int used = 0; //Slots that are not null, live or collected
+    private int collected = 0; //Slots whose key has been collected
+    private final ReferenceQueue<Target> collectedQueue = new ReferenceQueue<>(); //Receives the reference of each key that is collected
+    private ISupport.CaseMapping caseMapping = ISupport.CaseMapping.RFC1459;
+
+    /**
+     * Gets the key for a name, creating it if the name hasn't been seen
+     */
+    public Target Intern(String name)
+    {
+        return Find(name, 0, name.length(), true);
+    }
+
+    /**
+     * Gets the key for part of a string, eg a parameter of a received line, creating it if the name hasn't been seen
+     */
+    public Target Intern(String line, int start, int end)
+    {
+        return Find(line, start, end, true);
+    }
+
+    /**
+     * @return The key for a name, null if no live key has that name
+     */
+    public Target Get(String name)
+    {
+        return Find(name, 0, name.length(), false);
+    }
+
+    /**
+     * @return The key for part of a string, null if no live key has that name
+     */
+    public Target Get(String line, int start, int end)
+    {
+        return Find(line, start, end, false);
+    }
+
+    /**
+     * Changes the case mapping. Live keys are folded again in place, so maps holding them stay valid.
+     * Keys that now fold to the same name are merged, later lookups return the first. Holders of the others
+     * are told through ConnectionListener.CaseMappingChanged and look their names up again
+     * @return True if the mapping changed, and key hashes with it
+     */
+    public synchronized boolean SetCaseMapping(ISupport.CaseMapping mapping)
+    {
+        if(mapping == caseMapping) return false;
+        caseMapping = mapping;
+        WeakReference<Target>[] old = slots;
+        slots = NewTable(slots.length);
+        used = 0;
+        collected = 0;
+        while(collectedQueue.poll() != null) { } //Collected slots are dropped below
+        for(WeakReference<Target> ref : old)
+        {
+            Target target = ref == null ? null : ref.get();
+            if(target == null) continue;
+            target.key = Fold(target.name, 0, target.name.length());
+            target.hash = Hash(target.key, 0, target.key.length());
+            if(Find(target.key, 0, target.key.length(), false) == null) //First key with this name
+                Insert(target);
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of slots in use, including keys that have been collected
+     */
+    public synchronized int GetSize()
+    {
+        return used;
+    }
+
+    private synchronized Target Find(String line, int start, int end, boolean create)
+    {
+        int hash = Hash(line, start, end);
+        int mask = slots.length - 1;
+        int free = -1; //First collected slot passed, reused for a new key
+        int i = Mix(hash) & mask;
+        for(WeakReference<Target> ref; (ref = slots[i]) != null; i = (i + 1) & mask)
+        {
+            Target target = ref.get();
+            if(target == null)
+            {
+                if(free == -1) free = i;
+            }
+            else if(target.hash == hash && Matches(target.key, line, start, end))
+                return target;
+        }
+        if(!create) return null;
+        String name = start == 0 && end == line.length() ? line : line.substring(start, end);
+        String key = Fold(line, start, end);
+        Target target = new Target(name, key.equals(name) ? name : key, hash);
+        if(free != -1)
+        {
+            slots[free] = new WeakReference<>(target, collectedQueue);
+            collected--;
+        }
+        else
+        {
+            slots[i] = new WeakReference<>(target, collectedQueue);
+            used++;
+        }
+        while(collectedQueue.poll() != null)
+            collected++;
+        if(used * 2 > slots.length || (collected > MIN_SIZE && collected * 2 > used)) //Keep the table at most half full, and shrink it once most keys are gone
+            Rebuild();
+        return target;
+    }
+
+    /**
+     * Puts a key in the first empty slot of its probe run, the table must not hold its name already
+     */
+    private void Insert(Target target)
+    {
+        int mask = slots.length - 1;
+        int i = Mix(target.hash) & mask;
+        while(slots[i] != null)
+            i = (i + 1) & mask;
+        slots[i] = new WeakReference<>(target, collectedQueue);
+        used++;
+    }
+
+    /**
+     * Drops collected slots, and resizes so live keys fill at most a quarter of the table
+     */
+    private void Rebuild()
+    {
+        WeakReference<Target>[] old = slots;
+        int live = 0;
+        for(WeakReference<Target> ref : old)
+        {
+            if(ref != null && ref.get() != null)
+                live++;
+        }
+        int size = MIN_SIZE;
+        while(size < live * 4)
+            size *= 2;
+        slots = NewTable(size);
+        used = 0;
+        collected = 0;
+        while(collectedQueue.poll() != null) { } //Collected slots are dropped below
+        for(WeakReference<Target> ref : old)
+        {
+            Target target = ref == null ? null : ref.get();
+            if(target != null)
+            {
+                int mask = slots.length - 1;
+                int i = Mix(target.hash) & mask;
+                while(slots[i] != null)
+                    i = (i + 1) & mask;
+                slots[i] = ref; //Keep the existing reference object
+                used++;
+            }
+        }
+    }
+
+    /**
+     * Hashes a name as if it were folded, without folding it
+     */
+    private int Hash(String line, int start, int end)
+    {
+        int hash = 0;
+        for(int i = start; i < end; i++)
+            hash = 31 * hash + ISupport.Fold(caseMapping, line.charAt(i));
+        return hash;
+    }
+
+    /**
+     * @return If a folded key is the folded form of part of a string
+     */
+    private boolean Matches(String key, String line, int start, int end)
+    {
+        if(key.length() != end - start) return false;
+        for(int i = 0; i < key.length(); i++)
+        {
+            if(key.charAt(i) != ISupport.Fold(caseMapping, line.charAt(start + i)))
+                return false;
+        }
+        return true;
+    }
+
+    private String Fold(String line, int start, int end)
+    {
+        char[] folded = new char[end - start];
+        for(int i = 0; i < folded.length; i++)
+            folded[i] = ISupport.Fold(caseMapping, line.charAt(start + i));
+        return new String(folded);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static WeakReference<Target>[] NewTable(int size)
+    {
+        return (WeakReference<Target>[]) new WeakReference<?>[size];
+    }
+
+    /**
+     * Spreads the high bits of a hash into the low bits used for the slot index
+     */
+    private static int Mix(int hash)
+    {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
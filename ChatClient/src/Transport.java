@@ -0,0 +1,49 @@
+/* Transport interface for the socket engine a server connection sends and receives data with.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+
+/**
+ * A TCP connection to a server. AsyncTransport uses NIO completion handlers, BlockingTransport uses a thread per connection with blocking calls.
+ * Callbacks are invoked on the transport's own threads.
+ */
+public interface Transport {
+    /**
+     * Starts connecting to a server
+     * @param address Server address
+     * @param callback Invoked once the connection succeeds or fails
+     */
+    void Connect(InetSocketAddress address, CompletionHandler<Void, Object> callback);
+
+    /**
+     * Starts reading from the socket until it is closed or a read fails.
+     * The handler's completed method is invoked once for every read, with the buffer flipped and ready to be consumed,
+     * or with -1 when the server closes the connection. Failed is invoked once if a read fails.
+     * @param buffer Buffer to read into, reused for every read
+     * @param handler Handler for each read
+     */
+    void StartReading(ByteBuffer buffer, CompletionHandler<Integer, ByteBuffer> handler);
+
+    /**
+     * Writes the whole buffer. Only one write may be in flight at a time
+     * @param buffer Data to write
+     * @param callback Invoked when the buffer has been written or the write fails
+     */
+    void Write(ByteBuffer buffer, CompletionHandler<Integer, Object> callback);
+
+    /**
+     * @return If the socket is open
+     */
+    boolean IsOpen();
+
+    /**
+     * Closes the socket. Any read in progress fails
+     */
+    void Close() throws IOException;
+}
@@ -0,0 +1,49 @@
+/* User class to represent a user on an IRC server that shares at least one channel with us.
+ * Name: Matthew Corfiatis
+ * Username: CorfiaMatt
+ * ID: 300447277
+ */
+
+import java.util.ArrayList;
+
+public class User {
+    String nick; //Current nickname
+    TargetRegistry.Target key; //Canonical key of the nickname, its hash is kept so channel tables never rehash strings
+    String userName; //Username from the last prefix seen, may be null
+    String host; //Host from the last prefix seen, may be null
+    final ArrayList<Channel> channels = new ArrayList<>(2); //Channels this user shares with us, so QUIT and NICK only touch those
+
+    User(String nick, TargetRegistry.Target key)
+    {
+        SetNick(nick, key);
+    }
+
+    void SetNick(String nick, TargetRegistry.Target key)
+    {
+        this.nick = nick;
+        this.key = key;
+    }
+
+    public String GetNick()
+    {
+        return nick;
+    }
+
+    public String GetUserName()
+    {
+        return userName;
+    }
+
+    public String GetHost()
+    {
+        return host;
+    }
+
+    /**
+     * @return Number of channels this user shares with us
+     */
+    public int GetChannelCount()
+    {
+        return channels.size();
+    }
+}